@@ -7,6 +7,7 @@ import com.r6lab.sparkjava.jwt.TokenService;
 import com.r6lab.sparkjava.jwt.user.Role;
 import com.r6lab.sparkjava.jwt.user.User;
 import com.r6lab.sparkjava.jwt.user.UserService;
+import de.dfki.sds.ldaf.JSONTemplateModel;
 import java.io.IOException;
 import java.util.stream.Collectors;
 import org.eclipse.jetty.http.HttpStatus;
@@ -131,7 +132,7 @@ public class AuthController extends AbstractTokenController {
         
         return response(req, resp,
                 renderModel -> {
-                    renderModel.putAll(converter.toRenderModel(userObj));
+                    renderModel.putAll(JSONTemplateModel.toRenderModel(userObj));
                     return "authMe.html";
                 },
                 json -> {
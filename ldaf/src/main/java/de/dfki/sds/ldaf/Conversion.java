@@ -0,0 +1,228 @@
+package de.dfki.sds.ldaf;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.apache.jena.rdf.model.Resource;
+
+/**
+ * State of one conversion (e.g. one response) in the {@link Converter}.
+ * Memoizes the label/comment fragments and depth-0 subtrees of referenced
+ * resources as recorded generator calls, since the same resources are often
+ * referenced again and again.
+ * Limits the conversion with a budget of nodes, bytes and depth 
+ * (zero or less means no limit) and guards against cycles.
+ * The root objects can be projected to some fields and without incoming links.
+ */
+public class Conversion {
+
+    private Map<Resource, Fragment> labelComments;
+    private Map<Resource, Fragment> subtrees;
+    
+    private int hits;
+    private int misses;
+    
+    private int maxNodes;
+    private long maxBytes;
+    private int maxDepth;
+    
+    private int nodes;
+    private long bytes;
+    private boolean truncated;
+    //if the root objects get the truncated flag (not for list items, there the list result gets it)
+    private boolean markTruncated;
+    
+    //resources currently expanded
+    private Set<Resource> path;
+    
+    //json keys of the root objects to write (null means all) and if their incoming links are written
+    private Set<String> fields;
+    private boolean incoming;
+
+    public Conversion() {
+        this(0, 0, 0);
+    }
+    
+    public Conversion(int maxNodes, long maxBytes, int maxDepth) {
+        this.maxNodes = maxNodes;
+        this.maxBytes = maxBytes;
+        this.maxDepth = maxDepth;
+        labelComments = new HashMap<>();
+        subtrees = new HashMap<>();
+        path = new HashSet<>();
+        incoming = true;
+        markTruncated = true;
+    }
+    
+    /**
+     * Writes the memoized label/comment fragment of the resource to the generator
+     * or records it with the writer first.
+     * @return false if the fragment does not fit into the budget (nothing is written)
+     */
+    boolean labelComment(Resource resource, JSONGenerator gen, Consumer<JSONGenerator> writer) {
+        return memo(labelComments, resource, gen, writer);
+    }
+    
+    boolean subtree(Resource resource, JSONGenerator gen, Consumer<JSONGenerator> writer) {
+        return memo(subtrees, resource, gen, writer);
+    }
+    
+    private boolean memo(Map<Resource, Fragment> map, Resource resource, JSONGenerator gen, Consumer<JSONGenerator> writer) {
+        Fragment fragment = map.get(resource);
+        if(fragment != null) {
+            //a replayed fragment costs the same, so it must not overshoot the budget
+            if((maxNodes > 0 && nodes + fragment.nodes > maxNodes) || (maxBytes > 0 && bytes + fragment.bytes > maxBytes)) {
+                truncated = true;
+                return false;
+            }
+            hits++;
+            nodes += fragment.nodes;
+            bytes += fragment.bytes;
+            fragment.events.replay(gen);
+            return true;
+        }
+        misses++;
+        int nodesBefore = nodes;
+        long bytesBefore = bytes;
+        fragment = new Fragment();
+        fragment.events = new JSONRecorder();
+        writer.accept(fragment.events);
+        fragment.nodes = nodes - nodesBefore;
+        fragment.bytes = bytes - bytesBefore;
+        map.put(resource, fragment);
+        fragment.events.replay(gen);
+        return true;
+    }
+    
+    private class Fragment {
+        private JSONRecorder events;
+        private int nodes;
+        private long bytes;
+    }
+    
+    int limitDepth(int depth) {
+        if(maxDepth > 0 && depth > maxDepth) {
+            truncated = true;
+            return maxDepth;
+        }
+        return depth;
+    }
+    
+    /**
+     * True if no more nodes should be written (then the conversion is truncated).
+     * @return 
+     */
+    boolean isExhausted() {
+        if((maxNodes > 0 && nodes >= maxNodes) || (maxBytes > 0 && bytes >= maxBytes)) {
+            truncated = true;
+            return true;
+        }
+        return false;
+    }
+    
+    void node(long bytes) {
+        this.nodes++;
+        this.bytes += bytes;
+    }
+    
+    void bytes(long bytes) {
+        this.bytes += bytes;
+    }
+    
+    /**
+     * False if the resource is already expanded (a cycle).
+     * @param resource
+     * @return 
+     */
+    boolean enter(Resource resource) {
+        return path.add(resource);
+    }
+    
+    void leave(Resource resource) {
+        path.remove(resource);
+    }
+
+    /**
+     * True if the root objects should have the key.
+     * @param key
+     * @return 
+     */
+    boolean isField(String key) {
+        return fields == null || fields.contains(key);
+    }
+
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Only these keys of the root objects are written (uri, path and localname always are).
+     * Referenced resources are not projected.
+     * @param fields json keys or null for all
+     */
+    public void setFields(Collection<String> fields) {
+        this.fields = fields == null ? null : new HashSet<>(fields);
+    }
+
+    public boolean isIncoming() {
+        return incoming;
+    }
+
+    /**
+     * If false, the root objects have no {@link Converter#INCOMING} links.
+     * @param incoming 
+     */
+    public void setIncoming(boolean incoming) {
+        this.incoming = incoming;
+    }
+
+    public boolean isMarkTruncated() {
+        return markTruncated;
+    }
+
+    /**
+     * If false, the root objects do not get {@link Converter#TRUNCATED}, 
+     * e.g. for the items of a list where the list result gets it.
+     * @param markTruncated 
+     */
+    public void setMarkTruncated(boolean markTruncated) {
+        this.markTruncated = markTruncated;
+    }
+
+    /**
+     * How many lookups were saved.
+     * @return 
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * True if the output was cut by the budget.
+     * @return 
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public String toString() {
+        return "Conversion{" + "hits=" + hits + ", misses=" + misses + ", nodes=" + nodes + ", bytes=" + bytes + ", truncated=" + truncated + '}';
+    }
+    
+}
@@ -3,9 +3,19 @@ package de.dfki.sds.ldaf;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.NodeIterator;
@@ -15,119 +25,249 @@ import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.Table;
+import org.apache.jena.sparql.algebra.TableFactory;
+import org.apache.jena.sparql.algebra.op.OpBGP;
+import org.apache.jena.sparql.algebra.op.OpSequence;
+import org.apache.jena.sparql.algebra.op.OpTable;
+import org.apache.jena.sparql.core.BasicPattern;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.QueryIterator;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 /**
- * Converts between JSON and RDF or JSON and RenderModel.
+ * Converts between JSON and RDF (see {@link JSONTemplateModel} for rendering JSON).
  */
 public class Converter {
 
     public static final String INCOMING = "_incoming";
     public static final String LIST_POSTFIX = ":list";
+    public static final String TRUNCATED = "_truncated";
 
     private String serverAddress;
     private String ontologyNamespace;
+    
+    //predicate uri -> local names, json key -> property
+    //only the ontology's ones are interned (see seed), so clients cannot fill them
+    private Map<String, PredicateNames> predicateNames;
+    private Map<String, Property> properties;
 
     public Converter(String serverAddress, String ontologyNamespace) {
         this.serverAddress = serverAddress;
         this.ontologyNamespace = ontologyNamespace;
+        this.predicateNames = new ConcurrentHashMap<>();
+        this.properties = new ConcurrentHashMap<>();
     }
     
-    private Comparator<Statement> statementComp = (a, b) -> {
-        if (a.getObject().isLiteral() && b.getObject().isResource()) {
-            return -1;
-
-        } else if (a.getObject().isResource() && b.getObject().isLiteral()) {
-            return 1;
-
-        } else if (a.getObject().isLiteral() && b.getObject().isLiteral()
-                || a.getObject().isResource() && b.getObject().isResource()) {
-
-            return a.getPredicate().getLocalName().compareTo(b.getPredicate().getLocalName());
+    /**
+     * Interns the properties and local names of the ontology's resources, 
+     * so the conversions do not build them again on every request.
+     * Other keys and predicates (e.g. from request bodies) are not interned.
+     * @param ontology 
+     */
+    public void seed(Model ontology) {
+        for (Resource res : ontology.listSubjects().toList()) {
+            if (ontologyNamespace != null && res.isURIResource() && res.getURI().startsWith(ontologyNamespace)) {
+                Property p = ResourceFactory.createProperty(res.getURI());
+                intern(p);
+                String jsonKey = res.getURI().substring(ontologyNamespace.length());
+                properties.putIfAbsent(jsonKey, p);
+                properties.putIfAbsent(jsonKey + LIST_POSTFIX, p);
+            }
+        }
+        for (Property p : ontology.listStatements().mapWith(Statement::getPredicate).toSet()) {
+            intern(p);
+        }
+    }
+    
+    //the local names of a predicate: jena's (for sorting) and ours (the json key)
+    private static class PredicateNames {
+        private String sortName;
+        private String jsonKey;
+    }
+    
+    private PredicateNames names(Property p) {
+        PredicateNames names = predicateNames.get(p.getURI());
+        if (names == null) {
+            names = new PredicateNames();
+            names.sortName = p.getLocalName();
+            names.jsonKey = getLocalName(p);
+        }
+        return names;
+    }
+    
+    private void intern(Property p) {
+        predicateNames.putIfAbsent(p.getURI(), names(p));
+    }
+    
+    //sort key computed once per statement: (label, comment,) literals, resources, then local name
+    private static class StatementKey implements Comparable<StatementKey> {
+        
+        private Statement stmt;
+        private int rank;
+        private String localName;
+
+        public StatementKey(Statement stmt, String localName, boolean labelCommentFirst) {
+            this.stmt = stmt;
+            this.localName = localName;
+            if (labelCommentFirst && localName.equals("label")) {
+                rank = 0;
+            } else if (labelCommentFirst && localName.equals("comment")) {
+                rank = 1;
+            } else {
+                rank = stmt.getObject().isLiteral() ? 2 : 3;
+            }
         }
 
-        return 0;
-    };
+        @Override
+        public int compareTo(StatementKey o) {
+            if (rank != o.rank) {
+                return Integer.compare(rank, o.rank);
+            }
+            return localName.compareTo(o.localName);
+        }
+    }
+    
+    //package-private for StatementOrderBenchmark
+    List<Statement> sortStatements(List<Statement> stmts, boolean labelCommentFirst) {
+        List<StatementKey> keys = new ArrayList<>(stmts.size());
+        for (Statement stmt : stmts) {
+            keys.add(new StatementKey(stmt, names(stmt.getPredicate()).sortName, labelCommentFirst));
+        }
+        Collections.sort(keys);
+        List<Statement> sorted = new ArrayList<>(keys.size());
+        for (StatementKey key : keys) {
+            sorted.add(key.stmt);
+        }
+        return sorted;
+    }
 
     public JSONObject toJSON(Resource subject, Model model) {
         return toJSON(subject, model, 1);
     }
 
     public JSONObject toJSON(Resource subject, Model model, int depth) {
-        JSONObject obj = new JSONObject();
-        JSONUtils.forceLinkedHashMap(obj);
+        return toJSON(subject, model, depth, new Conversion());
+    }
+    
+    public JSONObject toJSON(Resource subject, Model model, int depth, Conversion conversion) {
+        JSONObjectGenerator gen = new JSONObjectGenerator();
+        writeJSON(subject, model, depth, gen, conversion);
+        return gen.getObject();
+    }
+    
+    /**
+     * Writes the same JSON as {@link #toJSON(Resource, Model, int)} 
+     * to the generator without building a JSONObject tree.
+     * @param subject
+     * @param model
+     * @param depth
+     * @param gen 
+     */
+    public void writeJSON(Resource subject, Model model, int depth, JSONGenerator gen) {
+        writeJSON(subject, model, depth, gen, new Conversion());
+    }
+    
+    /**
+     * Writes the JSON of the subject. Use the same conversion for several
+     * subjects (e.g. a list page) to share memoized fragments between them.
+     * If the conversion's budget truncated the output, 
+     * {@link #TRUNCATED} is added to the subject's object (see {@link Conversion#setMarkTruncated(boolean)}).
+     * @param subject
+     * @param model
+     * @param depth
+     * @param gen
+     * @param conversion 
+     */
+    public void writeJSON(Resource subject, Model model, int depth, JSONGenerator gen, Conversion conversion) {
+        writeJSON(subject, model, conversion.limitDepth(depth), gen, conversion, true);
+    }
+    
+    private void writeJSON(Resource subject, Model model, int depth, JSONGenerator gen, Conversion conversion, boolean root) {
+        //an already expanded resource (cycle) or no budget left: only a reference
+        if (conversion.isExhausted() || (depth > 0 && !conversion.enter(subject))) {
+            writeReference(subject, gen, conversion, root);
+            return;
+        }
+        try {
+            writeObject(subject, model, depth, gen, conversion, root);
+        } finally {
+            if (depth > 0) {
+                conversion.leave(subject);
+            }
+        }
+    }
+    
+    private void writeObject(Resource subject, Model model, int depth, JSONGenerator gen, Conversion conversion, boolean root) {
+        gen.beginObject();
         
         if(subject.isAnon() && subject.canAs(RDFList.class)) {
             RDFList rdflist = model.getList(subject);
             
-            obj.put("uri", serverAddress + "/list/" + subject.getId());
-            obj.put("path", "/list/" + subject.getId());
-            obj.put("localname", "" + subject.getId());
+            gen.name("uri").value(serverAddress + "/list/" + subject.getId());
+            gen.name("path").value("/list/" + subject.getId());
+            gen.name("localname").value("" + subject.getId());
+            conversion.node(serverAddress.length() + 3 * 40);
             
-            JSONArray arrayList = new JSONArray();
+            gen.name("rdflist").beginArray();
             for(RDFNode entry : rdflist.asJavaList()) {
                 if(entry.isResource()) {
-                    arrayList.put(toJSON(entry.asResource(), model, 0));
+                    writeSubtree(entry.asResource(), model, gen, conversion);
                 }
             }
-            obj.put("rdflist", arrayList);
+            gen.endArray();
             
-            return obj;
+            writeTruncated(gen, conversion, root);
+            gen.endObject();
+            return;
         }
 
-        obj.put("uri", subject.getURI());
-        obj.put("path", toPath(subject.getURI()));
-        String ln = getLocalName(subject);
-        if(ln != null) {
-            obj.put("localname", ln);
-        }
+        Set<String> written = writeHeader(subject, gen);
+        conversion.node(headerBytes(subject));
         
-        List<Statement> stmtList = model.listStatements(subject, null, (RDFNode) null).toList();
-        stmtList.sort(statementComp);
-
-        //put comment in front if exists
-        for (Statement stmt : stmtList.toArray(new Statement[0])) {
-            if (stmt.getPredicate().getLocalName().equals("comment")) {
-                stmtList.remove(stmt);
-                stmtList.add(0, stmt);
-            }
-        }
-        //put label in front if exists
-        for (Statement stmt : stmtList.toArray(new Statement[0])) {
-            if (stmt.getPredicate().getLocalName().equals("label")) {
-                stmtList.remove(stmt);
-                stmtList.add(0, stmt);
+        //the projection is only for the root object
+        for (Entry<String, List<RDFNode>> e : groupOutgoing(subject, model, root ? conversion : null).entrySet()) {
+            String pName = e.getKey();
+            List<RDFNode> objects = e.getValue();
+            
+            if (written.contains(pName)) {
+                throw new RuntimeException(pName + " property exists already");
             }
-        }
-
-        for (Statement stmt : stmtList) {
-
-            Property p = stmt.getPredicate();
-            String pName = getLocalName(p);
-
-            RDFNode o = stmt.getObject();
-            o = model.getRDFNode(o.asNode());
             
-            if(isList(o)) {
-                RDFList rdfList = o.as(RDFList.class);
-                rdfList.iterator().forEachRemaining(listEntry -> processObject(listEntry, obj, pName, model, depth));
+            if (objects.get(0).isLiteral()) {
+                if (objects.size() > 1) {
+                    throw new RuntimeException(pName + " literal property exists already");
+                }
+                Object value = objects.get(0).asLiteral().getValue();
+                gen.name(pName).value(value);
+                conversion.bytes(pName.length() + String.valueOf(value).length() + 6);
+                
             } else {
-                processObject(o, obj, pName, model, depth);
+                //always array
+                gen.name(pName).beginArray();
+                conversion.bytes(pName.length() + 6);
+                for (RDFNode o : objects) {
+                    if (o.isLiteral()) {
+                        throw new RuntimeException(pName + " literal property exists already");
+                    }
+                    processObject(o, model, depth, gen, conversion);
+                }
+                gen.endArray();
             }
-            
         }
 
         //only add incoming if resources should be opened
-        if (depth > 0) {
-            List<Statement> incomingList = model.listStatements(null, null, subject).toList();
-            incomingList.sort(statementComp);
-
-            JSONObject incomingObj = new JSONObject();
-            JSONUtils.forceLinkedHashMap(incomingObj);
+        if (depth > 0 && (!root || conversion.isIncoming())) {
+            List<Statement> incomingList = sortStatements(model.listStatements(null, null, subject).toList(), false);
 
+            Map<String, List<Resource>> incoming = new LinkedHashMap<>();
             for (Statement stmt : incomingList) {
                 Property p = stmt.getPredicate();
 
@@ -136,15 +276,263 @@ public class Converter {
                     continue;
                 }
                 
-                String pName = getLocalName(p);
+                incoming.computeIfAbsent(names(p).jsonKey, k -> new ArrayList<>()).add(stmt.getSubject());
+            }
 
-                ensureArray(incomingObj, pName, toJSON(stmt.getSubject(), model, 0));
+            gen.name(INCOMING).beginObject();
+            for (Entry<String, List<Resource>> e : incoming.entrySet()) {
+                gen.name(e.getKey()).beginArray();
+                conversion.bytes(e.getKey().length() + 6);
+                for (Resource s : e.getValue()) {
+                    writeSubtree(s, model, gen, conversion);
+                }
+                gen.endArray();
             }
+            gen.endObject();
+        }
 
-            obj.put(INCOMING, incomingObj);
+        writeTruncated(gen, conversion, root);
+        gen.endObject();
+    }
+    
+    //only uri, path and localname
+    private void writeReference(Resource subject, JSONGenerator gen, Conversion conversion, boolean root) {
+        gen.beginObject();
+        writeHeader(subject, gen);
+        conversion.node(headerBytes(subject));
+        writeTruncated(gen, conversion, root);
+        gen.endObject();
+    }
+    
+    private void writeTruncated(JSONGenerator gen, Conversion conversion, boolean root) {
+        if (root && conversion.isMarkTruncated() && conversion.isTruncated()) {
+            gen.name(TRUNCATED).value(true);
         }
+    }
+    
+    //estimated size of uri, path and localname in the JSON
+    private long headerBytes(Resource subject) {
+        return subject.isURIResource() ? 2 * subject.getURI().length() + 40 : 40;
+    }
 
-        return obj;
+    /**
+     * Copies the triples that {@link #writeJSON(Resource, Model, int, JSONGenerator)} 
+     * reads for the given subjects from source into a small in-memory model.
+     * The lookups are collected hop by hop and sent as one query per hop
+     * (outgoing, incoming, label/comment), so a page of resources needs a few queries
+     * instead of several lookups per resource in the (union) model.
+     * @param subjects
+     * @param source
+     * @param depth
+     * @return 
+     */
+    public Model prefetch(Collection<? extends Resource> subjects, Model source, int depth) {
+        return prefetch(subjects, source, depth, new Conversion());
+    }
+    
+    /**
+     * Like {@link #prefetch(Collection, Model, int)}, but the subjects are
+     * only expanded as far as the projection of the conversion needs it
+     * (its fields and incoming links).
+     * @param subjects
+     * @param source
+     * @param depth
+     * @param conversion the one the subjects are converted with
+     * @return 
+     */
+    public Model prefetch(Collection<? extends Resource> subjects, Model source, int depth, Conversion conversion) {
+        Prefetch prefetch = new Prefetch(source);
+        for (Resource subject : subjects) {
+            prefetch.expand(subject, depth, conversion);
+        }
+        prefetch.run();
+        return prefetch.target;
+    }
+    
+    private static final Var S = Var.alloc("s");
+    private static final Var P = Var.alloc("p");
+    private static final Var O = Var.alloc("o");
+    
+    //mirrors the lookups of writeJSON: a step which needs the triples of a node
+    //waits for the next hop, where they are fetched together with the ones of the other steps
+    private class Prefetch {
+        
+        private Model source;
+        private Model target;
+        
+        private Map<Resource, Integer> expanded;
+        //nodes whose outgoing (incoming) triples are in target or requested for the next hop
+        private Set<Resource> outgoing;
+        private Set<Resource> incoming;
+        private Set<Resource> labelComment;
+        
+        private List<Resource> nextOutgoing;
+        private List<Resource> nextIncoming;
+        private List<Runnable> nextSteps;
+
+        public Prefetch(Model source) {
+            this.source = source;
+            this.target = ModelFactory.createDefaultModel();
+            this.expanded = new HashMap<>();
+            this.outgoing = new HashSet<>();
+            this.incoming = new HashSet<>();
+            this.labelComment = new HashSet<>();
+            this.nextOutgoing = new ArrayList<>();
+            this.nextIncoming = new ArrayList<>();
+            this.nextSteps = new ArrayList<>();
+        }
+        
+        private void run() {
+            while (!nextSteps.isEmpty()) {
+                List<Runnable> steps = nextSteps;
+                nextSteps = new ArrayList<>();
+                
+                target.add(find(nextOutgoing, S, null));
+                nextOutgoing.clear();
+                for (Statement stmt : find(nextIncoming, O, null)) {
+                    //incoming type is not shown
+                    if (!stmt.getPredicate().equals(RDF.type)) {
+                        target.add(stmt);
+                    }
+                }
+                nextIncoming.clear();
+                
+                steps.forEach(Runnable::run);
+            }
+            
+            //the complete ones have them already
+            labelComment.removeAll(outgoing);
+            target.add(find(labelComment, S, Arrays.asList(RDFS.label, RDFS.comment)));
+        }
+        
+        //runs the step when the outgoing triples of the node are fetched
+        private void withOutgoing(Resource node, Runnable step) {
+            if (outgoing.add(node)) {
+                nextOutgoing.add(node);
+            }
+            nextSteps.add(step);
+        }
+        
+        private void expand(Resource subject, int depth) {
+            expand(subject, depth, null);
+        }
+        
+        //with a projection for the root subject
+        private void expand(Resource subject, int depth, Conversion projection) {
+            Integer done = expanded.get(subject);
+            if (done != null && done >= depth) {
+                return;
+            }
+            //a projected subject may have to be expanded again completely
+            if (projection == null || (projection.getFields() == null && projection.isIncoming())) {
+                expanded.put(subject, depth);
+            }
+            
+            if (depth > 0 && (projection == null || projection.isIncoming()) && incoming.add(subject)) {
+                nextIncoming.add(subject);
+                nextSteps.add(() -> {
+                    for (Statement stmt : target.listStatements(null, null, subject).toList()) {
+                        if (!stmt.getPredicate().equals(RDF.type)) {
+                            expand(stmt.getSubject(), 0);
+                        }
+                    }
+                });
+            }
+            
+            withOutgoing(subject, () -> {
+                if (isList(target.getRDFNode(subject.asNode()))) {
+                    listEntries(subject, entry -> {
+                        if (entry.isResource()) {
+                            expand(entry.asResource(), 0);
+                        }
+                    });
+                    return;
+                }
+                
+                for (Statement stmt : target.listStatements(subject, null, (RDFNode) null).toList()) {
+                    if (projection != null && !projection.isField(names(stmt.getPredicate()).jsonKey)) {
+                        continue;
+                    }
+                    RDFNode o = stmt.getObject();
+                    if (o.isAnon()) {
+                        //a list or not is known when its triples are fetched
+                        withOutgoing(o.asResource(), () -> {
+                            if (isList(target.getRDFNode(o.asNode()))) {
+                                listEntries(o.asResource(), entry -> object(entry, depth));
+                            } else {
+                                object(o, depth);
+                            }
+                        });
+                    } else {
+                        object(o, depth);
+                    }
+                }
+            });
+        }
+        
+        private void object(RDFNode o, int depth) {
+            if (!o.isResource()) {
+                return;
+            }
+            if (depth > 0) {
+                expand(o.asResource(), depth - 1);
+            } else {
+                labelComment.add(o.asResource());
+            }
+        }
+        
+        //fetches the list cells hop by hop and passes on the entries
+        private void listEntries(Resource head, Consumer<RDFNode> entries) {
+            listEntries(head, entries, new HashSet<>());
+        }
+        
+        private void listEntries(Resource cell, Consumer<RDFNode> entries, Set<Resource> visited) {
+            if (!cell.isAnon() || !visited.add(cell)) {
+                return;
+            }
+            withOutgoing(cell, () -> {
+                for (Statement stmt : target.listStatements(cell, null, (RDFNode) null).toList()) {
+                    if (stmt.getPredicate().equals(RDF.first)) {
+                        entries.accept(stmt.getObject());
+                    } else if (stmt.getPredicate().equals(RDF.rest) && stmt.getObject().isResource()) {
+                        listEntries(stmt.getObject().asResource(), entries, visited);
+                    }
+                }
+            });
+        }
+        
+        //one query for all nodes: the nodes are the values of the variable (subject or object),
+        //optionally only with the given predicates
+        private List<Statement> find(Collection<Resource> nodes, Var var, List<Property> predicates) {
+            List<Statement> stmts = new ArrayList<>();
+            if (nodes.isEmpty()) {
+                return stmts;
+            }
+            
+            Table values = TableFactory.create();
+            for (Resource node : nodes) {
+                if (predicates == null) {
+                    values.addBinding(BindingFactory.binding(var, node.asNode()));
+                } else {
+                    for (Property predicate : predicates) {
+                        values.addBinding(BindingFactory.binding(BindingFactory.binding(var, node.asNode()), P, predicate.asNode()));
+                    }
+                }
+            }
+            
+            //the values are joined into the pattern one after another (no scan of the pattern)
+            Op op = OpSequence.create(OpTable.create(values), new OpBGP(BasicPattern.wrap(Arrays.asList(Triple.create(S, P, O)))));
+            QueryIterator iter = Algebra.exec(op, source.getGraph());
+            try {
+                while (iter.hasNext()) {
+                    Binding b = iter.next();
+                    stmts.add(source.asStatement(Triple.create(b.get(S), b.get(P), b.get(O))));
+                }
+            } finally {
+                iter.close();
+            }
+            return stmts;
+        }
     }
 
     public JSONArray toJSON(Model model) {
@@ -159,59 +547,111 @@ public class Converter {
         return node.isAnon() && node.canAs(RDFList.class);
     }
     
-    private void processObject(RDFNode o, JSONObject obj, String pName, Model model, int depth) {
-        if (o.isResource()) {
-                //always array
+    //uri, path and localname (null values are left out like in JSONObject.put)
+    private Set<String> writeHeader(Resource subject, JSONGenerator gen) {
+        Set<String> written = new HashSet<>();
+        String uri = subject.getURI();
+        if(uri != null) {
+            gen.name("uri").value(uri);
+            written.add("uri");
+        }
+        String path = toPath(uri);
+        if(path != null) {
+            gen.name("path").value(path);
+            written.add("path");
+        }
+        String ln = getLocalName(subject);
+        if(ln != null) {
+            gen.name("localname").value(ln);
+            written.add("localname");
+        }
+        return written;
+    }
+    
+    //outgoing objects grouped by json key, keys in output order (label, comment, literals, resources)
+    //if a projection is given, only its fields
+    private Map<String, List<RDFNode>> groupOutgoing(Resource subject, Model model, Conversion projection) {
+        List<Statement> stmtList = model.listStatements(subject, null, (RDFNode) null).toList();
+        if (projection != null && projection.getFields() != null) {
+            stmtList.removeIf(stmt -> !projection.isField(names(stmt.getPredicate()).jsonKey));
+        }
+        //label and comment in front if exist
+        stmtList = sortStatements(stmtList, true);
 
-            if (depth > 0) {
-                //show more of the resource
-                ensureArray(obj, pName, toJSON(o.asResource(), model, depth-1));
+        Map<String, List<RDFNode>> groups = new LinkedHashMap<>();
+        for (Statement stmt : stmtList) {
 
+            String pName = names(stmt.getPredicate()).jsonKey;
+
+            RDFNode o = stmt.getObject();
+            o = model.getRDFNode(o.asNode());
+            
+            List<RDFNode> objects = groups.computeIfAbsent(pName, k -> new ArrayList<>());
+            if(isList(o)) {
+                RDFList rdfList = o.as(RDFList.class);
+                rdfList.iterator().forEachRemaining(objects::add);
             } else {
-                //one more hop to get label/comment
-                ensureArray(obj, pName, toJSONLabelComment(o.asResource(), model));
+                objects.add(o);
             }
-        } else if (o.isLiteral()) {
-            if (obj.has(pName)) {
-                throw new RuntimeException(pName + " literal property exists already");
+        }
+        
+        //empty lists are not shown
+        groups.values().removeIf(List::isEmpty);
+        
+        return groups;
+    }
+    
+    private void processObject(RDFNode o, Model model, int depth, JSONGenerator gen, Conversion conversion) {
+        if (depth > 1) {
+            //show more of the resource
+            writeJSON(o.asResource(), model, depth-1, gen, conversion, false);
+        } else if (depth == 1) {
+            writeSubtree(o.asResource(), model, gen, conversion);
+        } else if (conversion.isExhausted()) {
+            writeReference(o.asResource(), gen, conversion, false);
+        } else {
+            //one more hop to get label/comment
+            Resource res = o.asResource();
+            if (!conversion.labelComment(res, gen, fragment -> writeJSONLabelComment(res, model, fragment, conversion))) {
+                writeReference(res, gen, conversion, false);
             }
-            obj.put(pName, o.asLiteral().getValue());
         }
     }
     
-    private JSONObject toJSONLabelComment(Resource subject, Model model) {
-        JSONObject obj = new JSONObject();
-        JSONUtils.forceLinkedHashMap(obj);
-
-        obj.put("uri", subject.getURI());
-        obj.put("path", toPath(subject.getURI()));
-        String ln = getLocalName(subject);
-        if(ln != null) {
-            obj.put("localname", ln);
+    //depth 0 subtree, memoized in the conversion
+    private void writeSubtree(Resource subject, Model model, JSONGenerator gen, Conversion conversion) {
+        if (conversion.isExhausted()) {
+            writeReference(subject, gen, conversion, false);
+            return;
         }
+        if (!conversion.subtree(subject, gen, fragment -> writeJSON(subject, model, 0, fragment, conversion, false))) {
+            writeReference(subject, gen, conversion, false);
+        }
+    }
+    
+    private void writeJSONLabelComment(Resource subject, Model model, JSONGenerator gen, Conversion conversion) {
+        gen.beginObject();
+        
+        writeHeader(subject, gen);
+
+        long bytes = headerBytes(subject);
 
         NodeIterator labels = model.listObjectsOfProperty(subject, RDFS.label);
         if (labels.hasNext()) {
-            obj.put("label", labels.next().asLiteral().getLexicalForm());
+            String label = labels.next().asLiteral().getLexicalForm();
+            gen.name("label").value(label);
+            bytes += label.length() + 12;
         }
 
         NodeIterator comments = model.listObjectsOfProperty(subject, RDFS.comment);
         if (comments.hasNext()) {
-            obj.put("comment", comments.next().asLiteral().getLexicalForm());
+            String comment = comments.next().asLiteral().getLexicalForm();
+            gen.name("comment").value(comment);
+            bytes += comment.length() + 14;
         }
+        conversion.node(bytes);
 
-        return obj;
-    }
-
-    private void ensureArray(JSONObject obj, String key, Object value) {
-        if (obj.has(key)) {
-            Object cur = obj.get(key);
-            ((JSONArray) cur).put(value);
-        } else {
-            JSONArray array = new JSONArray();
-            array.put(value);
-            obj.put(key, array);
-        }
+        gen.endObject();
     }
 
     private void putOrArray(JSONObject obj, String key, Object value) {
@@ -384,45 +824,15 @@ public class Converter {
             case "type":
                 return RDF.type;
         }
-        if(jsonKey.endsWith(LIST_POSTFIX)) {
-            jsonKey = jsonKey.substring(0, jsonKey.length() - LIST_POSTFIX.length());
+        Property p = properties.get(jsonKey);
+        if (p != null) {
+            return p;
         }
-        Property p = ResourceFactory.createProperty(ontologyNamespace + jsonKey);
-        return p;
-    }
-    
-    public RenderModel toRenderModel(JSONObject json) {
-        RenderModel m = new RenderModel();
-        
-        for(Entry<String, Object> e : json.toMap().entrySet()) {
-            if(e.getValue() instanceof JSONObject) {
-                m.put(e.getKey(), toRenderModel((JSONObject) e.getValue()));
-                
-            } else if(e.getValue() instanceof JSONArray) {
-                m.put(e.getKey(), toRenderList((JSONArray) e.getValue()));
-                
-            } else {
-                m.put(e.getKey(), e.getValue());
-            }
+        String localName = jsonKey;
+        if(localName.endsWith(LIST_POSTFIX)) {
+            localName = localName.substring(0, localName.length() - LIST_POSTFIX.length());
         }
-            
-        return m;
-    }
-    
-    public List<Object> toRenderList(JSONArray array) {
-        List<Object> l = new ArrayList<>();
-        for(int i = 0; i < array.length(); i++) {
-            if(array.get(i) instanceof JSONObject) {
-                l.add(toRenderModel((JSONObject) array.get(i)));
-                
-            } else if(array.get(i) instanceof JSONArray) {
-                l.add(toRenderList((JSONArray) array.get(i)));
-                
-            } else {
-                l.add(array.get(i));
-            }
-        }
-        return l;
+        return ResourceFactory.createProperty(ontologyNamespace + localName);
     }
     
     public static String getLocalName(Resource res) {
@@ -1,45 +1,138 @@
 package de.dfki.sds.ldaf;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.io.FileUtils;
 
 /**
  * This class is used to count things in order to have unique IDs.
+ * IDs are reserved in blocks: the file of a counter only stores the 
+ * high-water mark (the first ID which is not reserved yet), so it is 
+ * written once per block and not for every ID.
+ * After a crash the unused rest of a block is skipped, IDs are never reused.
  */
 public class Counter {
 
     //predefined counter names
     public static final String UPLOAD = "upload";
     
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+    
     private File folder;
+    private int blockSize;
+    private Map<String, Sequence> sequences;
 
     public Counter(File folder) {
+        this(folder, DEFAULT_BLOCK_SIZE);
+    }
+    
+    public Counter(File folder, int blockSize) {
         this.folder = folder;
+        this.blockSize = Math.max(1, blockSize);
+        this.sequences = new ConcurrentHashMap<>();
         folder.mkdirs();
     }
 
     public int getIncreased(String name) {
-        synchronized (this) {
+        return Math.toIntExact(getSequence(name).next());
+    }
+    
+    /**
+     * The first ID of the counter which is not reserved yet.
+     * No ID greater or equal to it has been returned so far.
+     * @param name
+     * @return 
+     */
+    public long getHighWaterMark(String name) {
+        return getSequence(name).highWaterMark;
+    }
+    
+    /**
+     * Makes sure that no ID lower than the given one is returned anymore
+     * (e.g. because it was given out somewhere else).
+     * The file is only written if the ID is beyond the reserved block.
+     * @param name
+     * @param id 
+     */
+    public void skipTo(String name, long id) {
+        getSequence(name).skipTo(id);
+    }
+    
+    private Sequence getSequence(String name) {
+        return sequences.computeIfAbsent(name, n -> new Sequence(new File(folder, n + ".txt")));
+    }
+    
+    private class Sequence {
+        
+        private File file;
+        private AtomicLong next;
+        private volatile long highWaterMark;
+
+        public Sequence(File file) {
+            this.file = file;
+            
+            //init with 1
+            long start = 1;
+            if(file.exists()) {
+                try {
+                    start = Long.parseLong(FileUtils.readFileToString(file, StandardCharsets.UTF_8).trim());
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+            
+            //nothing is reserved yet
+            next = new AtomicLong(start);
+            highWaterMark = start;
+        }
+        
+        private long next() {
+            long id = next.getAndIncrement();
+            if(id < highWaterMark) {
+                return id;
+            }
+            
+            //only the one who exceeds the block reserves the next one
+            synchronized(this) {
+                while(id >= highWaterMark) {
+                    long mark = highWaterMark + blockSize;
+                    save(mark);
+                    highWaterMark = mark;
+                }
+            }
+            return id;
+        }
+        
+        private void skipTo(long id) {
+            next.accumulateAndGet(id, Math::max);
+            if(id < highWaterMark) {
+                return;
+            }
+            synchronized(this) {
+                if(id >= highWaterMark) {
+                    long mark = id + blockSize;
+                    save(mark);
+                    highWaterMark = mark;
+                }
+            }
+        }
+        
+        //written to a temporary file and synced before it replaces the old one
+        private void save(long mark) {
+            File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
             try {
-                File counterFile = new File(folder, name + ".txt");
-                
-                //init with 1
-                if (!counterFile.exists()) {
-                    FileUtils.writeStringToFile(counterFile, "1", StandardCharsets.UTF_8);
+                try (FileOutputStream out = new FileOutputStream(tmp)) {
+                    out.write(String.valueOf(mark).getBytes(StandardCharsets.UTF_8));
+                    out.getFD().sync();
                 }
-                
-                //get from file
-                int count = Integer.parseInt(FileUtils.readFileToString(counterFile, StandardCharsets.UTF_8).trim());
-                
-                //increase and save
-                int inc = count + 1;
-                FileUtils.writeStringToFile(counterFile, String.valueOf(inc), StandardCharsets.UTF_8);
-                
-                //return the old value
-                return count;
-                
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
             }
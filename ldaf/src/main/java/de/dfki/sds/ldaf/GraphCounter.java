@@ -0,0 +1,68 @@
+package de.dfki.sds.ldaf;
+
+import de.dfki.sds.ldaf.rdf.RDFDatasetStorage;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.vocabulary.RDF;
+
+/**
+ * This class is used to count things in order to have unique IDs, 
+ * like {@link Counter} but the counters are triples in a system graph.
+ * {@link #getIncreased(java.lang.String) } has to be called in the write transaction
+ * which also writes the data, so IDs and data are committed together.
+ */
+public class GraphCounter {
+
+    private RDFDatasetStorage datasetStorage;
+    private String graphUri;
+    
+    //new counters continue where the file counter stopped and 
+    //the file counter is kept ahead of the given IDs (can be null)
+    private Counter fileCounter;
+
+    public GraphCounter(RDFDatasetStorage datasetStorage, String graphUri, Counter fileCounter) {
+        this.datasetStorage = datasetStorage;
+        this.graphUri = graphUri;
+        this.fileCounter = fileCounter;
+    }
+    
+    /**
+     * Returns the current value and increases it.
+     * Has to be called in a write transaction.
+     * @param name
+     * @return 
+     */
+    public int getIncreased(String name) {
+        Model model = datasetStorage.getGraph(graphUri).getModel();
+        Resource counter = ResourceFactory.createResource(graphUri + "/" + name);
+        
+        long count;
+        Statement stmt = model.getProperty(counter, RDF.value);
+        if(stmt != null) {
+            count = stmt.getLong();
+        } else if(fileCounter != null) {
+            //no ID below this was given out by the file counter
+            count = fileCounter.getHighWaterMark(name);
+        } else {
+            //init with 1
+            count = 1;
+        }
+        
+        model.removeAll(counter, RDF.value, null);
+        model.addLiteral(counter, RDF.value, count + 1);
+        
+        //the file counter must not give out this ID if the graph counter is switched off later
+        if(fileCounter != null) {
+            fileCounter.skipTo(name, count + 1);
+        }
+        
+        return Math.toIntExact(count);
+    }
+
+    public String getGraphUri() {
+        return graphUri;
+    }
+    
+}
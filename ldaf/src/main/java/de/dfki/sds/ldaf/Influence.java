@@ -15,6 +15,10 @@ public class Influence {
     
     //here you have the possibility to change the json result in the get list method
     private Consumer<JSONObject> consumeResultInGetList;
+    
+    //if true, the responses of the get routes are cached until their graphs change
+    private boolean responseCache;
+    private int responseCacheSize = ResponseCache.DEFAULT_SIZE;
 
     public boolean isNoSublistInGetList() {
         return noSublistInGetList;
@@ -31,5 +35,21 @@ public class Influence {
     public void setConsumeResultInGetList(Consumer<JSONObject> consumeResultInGetList) {
         this.consumeResultInGetList = consumeResultInGetList;
     }
+
+    public boolean isResponseCache() {
+        return responseCache;
+    }
+
+    public void setResponseCache(boolean responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public int getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    public void setResponseCacheSize(int responseCacheSize) {
+        this.responseCacheSize = responseCacheSize;
+    }
     
 }
@@ -0,0 +1,26 @@
+package de.dfki.sds.ldaf;
+
+/**
+ * Target of a JSON conversion: either a JSONObject tree is built 
+ * or the JSON is written directly to a stream.
+ */
+public interface JSONGenerator {
+    
+    JSONGenerator beginObject();
+    
+    JSONGenerator endObject();
+    
+    JSONGenerator beginArray();
+    
+    JSONGenerator endArray();
+    
+    JSONGenerator name(String name);
+    
+    /**
+     * A value like in JSONObject.put (also JSONObject and JSONArray).
+     * @param value
+     * @return 
+     */
+    JSONGenerator value(Object value);
+    
+}
@@ -0,0 +1,110 @@
+package de.dfki.sds.ldaf;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Builds a JSONObject tree (with key order) from the generator calls.
+ */
+public class JSONObjectGenerator implements JSONGenerator {
+
+    private Deque<Object> stack;
+    private String name;
+    private Object root;
+
+    public JSONObjectGenerator() {
+        stack = new ArrayDeque<>();
+    }
+    
+    @Override
+    public JSONGenerator beginObject() {
+        JSONObject obj = new JSONObject();
+        JSONUtils.forceLinkedHashMap(obj);
+        add(obj);
+        stack.push(obj);
+        return this;
+    }
+
+    @Override
+    public JSONGenerator endObject() {
+        stack.pop();
+        return this;
+    }
+
+    @Override
+    public JSONGenerator beginArray() {
+        JSONArray array = new JSONArray();
+        add(array);
+        stack.push(array);
+        return this;
+    }
+
+    @Override
+    public JSONGenerator endArray() {
+        stack.pop();
+        return this;
+    }
+
+    @Override
+    public JSONGenerator name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * JSONObject and JSONArray values are copied, so the tree never shares them.
+     * @param value
+     * @return 
+     */
+    @Override
+    public JSONGenerator value(Object value) {
+        add(copy(value));
+        return this;
+    }
+    
+    private Object copy(Object value) {
+        if(value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            JSONObject copy = new JSONObject();
+            JSONUtils.forceLinkedHashMap(copy);
+            for(String key : obj.keySet()) {
+                copy.put(key, copy(obj.opt(key)));
+            }
+            return copy;
+        }
+        if(value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            JSONArray copy = new JSONArray();
+            for(int i = 0; i < array.length(); i++) {
+                copy.put(copy(array.opt(i)));
+            }
+            return copy;
+        }
+        return value;
+    }
+    
+    private void add(Object value) {
+        if(stack.isEmpty()) {
+            root = value;
+        } else if(stack.peek() instanceof JSONObject) {
+            ((JSONObject) stack.peek()).put(name, value);
+        } else {
+            ((JSONArray) stack.peek()).put(value);
+        }
+    }
+
+    /**
+     * The first object or array that was started.
+     * @return 
+     */
+    public Object getRoot() {
+        return root;
+    }
+    
+    public JSONObject getObject() {
+        return (JSONObject) root;
+    }
+    
+}
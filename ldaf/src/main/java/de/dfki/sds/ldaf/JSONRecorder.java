@@ -0,0 +1,79 @@
+package de.dfki.sds.ldaf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the generator calls, so they can be replayed to another generator
+ * (e.g. several times) without building a JSONObject tree.
+ */
+public class JSONRecorder implements JSONGenerator {
+
+    private enum Event { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, VALUE }
+
+    private List<Event> events;
+    //the name or value of each NAME and VALUE event
+    private List<Object> arguments;
+
+    public JSONRecorder() {
+        events = new ArrayList<>();
+        arguments = new ArrayList<>();
+    }
+
+    @Override
+    public JSONGenerator beginObject() {
+        events.add(Event.BEGIN_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JSONGenerator endObject() {
+        events.add(Event.END_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JSONGenerator beginArray() {
+        events.add(Event.BEGIN_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JSONGenerator endArray() {
+        events.add(Event.END_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JSONGenerator name(String name) {
+        events.add(Event.NAME);
+        arguments.add(name);
+        return this;
+    }
+
+    @Override
+    public JSONGenerator value(Object value) {
+        events.add(Event.VALUE);
+        arguments.add(value);
+        return this;
+    }
+
+    /**
+     * Calls the recorded calls on the generator.
+     * @param gen
+     */
+    public void replay(JSONGenerator gen) {
+        int arg = 0;
+        for(Event event : events) {
+            switch(event) {
+                case BEGIN_OBJECT: gen.beginObject(); break;
+                case END_OBJECT: gen.endObject(); break;
+                case BEGIN_ARRAY: gen.beginArray(); break;
+                case END_ARRAY: gen.endArray(); break;
+                case NAME: gen.name((String) arguments.get(arg++)); break;
+                case VALUE: gen.value(arguments.get(arg++)); break;
+            }
+        }
+    }
+
+}
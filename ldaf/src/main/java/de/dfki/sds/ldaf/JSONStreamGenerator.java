@@ -0,0 +1,118 @@
+package de.dfki.sds.ldaf;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Writes the generator calls directly as JSON to a writer.
+ * Values are formatted like org.json does it.
+ */
+public class JSONStreamGenerator implements JSONGenerator {
+
+    private JsonWriter writer;
+
+    public JSONStreamGenerator(Writer writer) {
+        this(writer, 2);
+    }
+    
+    public JSONStreamGenerator(Writer writer, int indent) {
+        this.writer = new JsonWriter(writer);
+        if(indent > 0) {
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < indent; i++) {
+                sb.append(" ");
+            }
+            this.writer.setIndent(sb.toString());
+        }
+    }
+    
+    @Override
+    public JSONGenerator beginObject() {
+        try {
+            writer.beginObject();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return this;
+    }
+
+    @Override
+    public JSONGenerator endObject() {
+        try {
+            writer.endObject();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return this;
+    }
+
+    @Override
+    public JSONGenerator beginArray() {
+        try {
+            writer.beginArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return this;
+    }
+
+    @Override
+    public JSONGenerator endArray() {
+        try {
+            writer.endArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return this;
+    }
+
+    @Override
+    public JSONGenerator name(String name) {
+        try {
+            writer.name(name);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return this;
+    }
+
+    @Override
+    public JSONGenerator value(Object value) {
+        if(value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            beginObject();
+            for(String key : obj.keySet()) {
+                name(key);
+                value(obj.opt(key));
+            }
+            return endObject();
+        }
+        if(value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            beginArray();
+            for(int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            return endArray();
+        }
+        try {
+            writer.jsonValue(JSONObject.valueToString(value));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return this;
+    }
+    
+    public void flush() {
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+}
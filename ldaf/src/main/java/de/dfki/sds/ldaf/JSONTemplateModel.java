@@ -0,0 +1,189 @@
+package de.dfki.sds.ldaf;
+
+import freemarker.template.AdapterTemplateModel;
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleCollection;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx2;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateSequenceModel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Freemarker models that read directly from JSONObject and JSONArray, 
+ * so no RenderModel copy of the JSON is needed for rendering.
+ */
+public class JSONTemplateModel {
+
+    private static final ObjectWrapper WRAPPER = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_28).build();
+    
+    /**
+     * JSONObject to hash, JSONArray to sequence, null for JSONObject.NULL, 
+     * other values like the default object wrapper does it.
+     * @param value
+     * @return
+     * @throws TemplateModelException 
+     */
+    public static TemplateModel wrap(Object value) throws TemplateModelException {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            return null;
+        }
+        if (value instanceof JSONObject) {
+            return new Hash((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            return new Sequence((JSONArray) value);
+        }
+        return WRAPPER.wrap(value);
+    }
+    
+    /**
+     * Render model whose entries read lazily from the json.
+     * @param json
+     * @return 
+     */
+    public static RenderModel toRenderModel(JSONObject json) {
+        RenderModel m = new RenderModel();
+        for (String key : json.keySet()) {
+            Object value = json.get(key);
+            if (value instanceof JSONObject) {
+                m.put(key, new Hash((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                m.put(key, new Sequence((JSONArray) value));
+            } else if (JSONObject.NULL.equals(value)) {
+                m.put(key, null);
+            } else {
+                m.put(key, value);
+            }
+        }
+        return m;
+    }
+    
+    public static class Hash implements TemplateHashModelEx2, AdapterTemplateModel {
+
+        private JSONObject json;
+
+        public Hash(JSONObject json) {
+            this.json = json;
+        }
+        
+        @Override
+        public TemplateModel get(String key) throws TemplateModelException {
+            return wrap(json.opt(key));
+        }
+
+        @Override
+        public boolean isEmpty() throws TemplateModelException {
+            return json.length() == 0;
+        }
+
+        @Override
+        public int size() throws TemplateModelException {
+            return json.length();
+        }
+
+        @Override
+        public TemplateCollectionModel keys() throws TemplateModelException {
+            return new SimpleCollection(json.keySet(), WRAPPER);
+        }
+
+        @Override
+        public TemplateCollectionModel values() throws TemplateModelException {
+            List<TemplateModel> values = new ArrayList<>();
+            for (String key : json.keySet()) {
+                values.add(get(key));
+            }
+            return new SimpleCollection(values, WRAPPER);
+        }
+
+        @Override
+        public KeyValuePairIterator keyValuePairIterator() throws TemplateModelException {
+            Iterator<String> keys = json.keySet().iterator();
+            return new KeyValuePairIterator() {
+                @Override
+                public boolean hasNext() throws TemplateModelException {
+                    return keys.hasNext();
+                }
+
+                @Override
+                public KeyValuePair next() throws TemplateModelException {
+                    String key = keys.next();
+                    TemplateModel value = get(key);
+                    return new KeyValuePair() {
+                        @Override
+                        public TemplateModel getKey() throws TemplateModelException {
+                            return WRAPPER.wrap(key);
+                        }
+
+                        @Override
+                        public TemplateModel getValue() throws TemplateModelException {
+                            return value;
+                        }
+                    };
+                }
+            };
+        }
+
+        //for java methods called from a template
+        @Override
+        public Object getAdaptedObject(Class<?> hint) {
+            return json.toMap();
+        }
+    }
+    
+    public static class Sequence implements TemplateSequenceModel, AdapterTemplateModel {
+
+        private JSONArray array;
+
+        public Sequence(JSONArray array) {
+            this.array = array;
+        }
+        
+        @Override
+        public TemplateModel get(int index) throws TemplateModelException {
+            return wrap(array.opt(index));
+        }
+
+        @Override
+        public int size() throws TemplateModelException {
+            return array.length();
+        }
+
+        @Override
+        public Object getAdaptedObject(Class<?> hint) {
+            return array.toList();
+        }
+    }
+    
+    /**
+     * The json source as string, serialized once when a template first uses it.
+     * Templates can use it like a string (e.g. string built-ins), 
+     * but Java code reading the render model gets this model, not a String.
+     */
+    public static class Source implements TemplateScalarModel {
+
+        private JSONObject json;
+        private String source;
+
+        public Source(JSONObject json) {
+            this.json = json;
+        }
+        
+        @Override
+        public String getAsString() throws TemplateModelException {
+            if (source == null) {
+                source = json.toString();
+            }
+            return source;
+        }
+    }
+    
+}
@@ -5,17 +5,22 @@ import com.r6lab.sparkjava.jwt.TokenService;
 import com.r6lab.sparkjava.jwt.controller.AuthController;
 import com.r6lab.sparkjava.jwt.user.UserService;
 import de.dfki.sds.ldaf.rdf.RDFDatasetStorage;
+import de.dfki.sds.ldaf.rdf.RDFDatasetStorageMem;
 import de.dfki.sds.ldaf.rdf.RDFDatasetStorageTDB2;
 import de.dfki.sds.ldaf.rdf.RDFGraphStorage;
+import de.dfki.sds.ldaf.resources.Graphs;
 import de.dfki.sds.ldaf.resources.Ontology;
 import de.dfki.sds.ldaf.resources.Root;
 import de.dfki.sds.ldaf.resources.Search;
 import de.dfki.sds.ldaf.resources.Sparql;
 import de.dfki.sds.ldaf.resources.Upload;
 import freemarker.cache.ClassTemplateLoader;
+import freemarker.cache.MruCacheStorage;
 import freemarker.template.Configuration;
 import freemarker.template.TemplateExceptionHandler;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -24,6 +29,8 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.jena.fuseki.server.DataAccessPointRegistry;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.compose.MultiUnion;
 import spark.template.freemarker.FreeMarkerEngine;
 
 /**
@@ -33,13 +40,21 @@ public class LinkedDataApplication {
  
     private static final String ROOT_PATH = "/de/dfki/sds/ldaf";
     
+    private static final int TEMPLATE_CACHE_STRONG_SIZE = 20;
+    private static final int TEMPLATE_CACHE_SOFT_SIZE = 250;
+    
     private LinkedDataApplicationSettings settings;
     private String serverAddress;
     
     private FreeMarkerEngine freeMarkerEngine;
+    private Configuration freemarkerConfig;
     
     private RDFDatasetStorage datasetStorage;
     
+    //union of the public graphs and the graph list it was built from
+    private Graph publicGraphUnion;
+    private List<String> publicGraphUnionNames;
+    
     public static final CommandLineParser parser = new DefaultParser();
     private CommandLine cmd;
     public static final Options options = new Options();
@@ -49,6 +64,8 @@ public class LinkedDataApplication {
     }
     
     private Counter counter;
+    //null if not transactional
+    private GraphCounter graphCounter;
     
     private static final String SECRET_JWT = "Q5M7clOZkFz1XBKh3YW7";
     private TokenService tokenService;
@@ -71,6 +88,7 @@ public class LinkedDataApplication {
         initConverter();
         initFreemarker();
         initRDF();
+        initGraphCounter();
         initFuseki();
         initSpark();
         initJsonWebToken();
@@ -102,7 +120,7 @@ public class LinkedDataApplication {
     
     private void initCounter() {
         settings.getCounterPath().mkdirs();
-        counter = new Counter(settings.getCounterPath());
+        counter = new Counter(settings.getCounterPath(), settings.getCounterBlockSize());
     }
     
     /**
@@ -110,17 +128,35 @@ public class LinkedDataApplication {
      */
     private void initFreemarker() {
         //template (freemarker)
-        Configuration freemarkerConfig = new Configuration(Configuration.VERSION_2_3_28);
+        freemarkerConfig = new Configuration(Configuration.VERSION_2_3_28);
         freemarkerConfig.setDefaultEncoding("UTF-8");
         freemarkerConfig.setTemplateExceptionHandler(TemplateExceptionHandler.HTML_DEBUG_HANDLER);
         freemarkerConfig.setLogTemplateExceptions(false);
         freemarkerConfig.setTemplateLoader(new ClassTemplateLoader(LinkedDataApplication.class, settings.getFreemarkerTemplateClasspath()));
+        //parsed templates are cached and only checked for changes after the delay
+        freemarkerConfig.setCacheStorage(new MruCacheStorage(TEMPLATE_CACHE_STRONG_SIZE, TEMPLATE_CACHE_SOFT_SIZE));
+        freemarkerConfig.setTemplateUpdateDelayMilliseconds(settings.getTemplateUpdateDelay());
         freeMarkerEngine = new FreeMarkerEngine(freemarkerConfig);
     }
     
     private void initRDF() {
-        settings.getTdbPath().mkdirs();
-        datasetStorage = new RDFDatasetStorageTDB2(settings.getTdbPath().getAbsolutePath());
+        if(settings.isInMemoryStorage()) {
+            RDFDatasetStorageMem mem = new RDFDatasetStorageMem(settings.getSnapshotFile());
+            if(settings.getSnapshotFile() != null) {
+                Runtime.getRuntime().addShutdownHook(new Thread(mem::saveSnapshot));
+            }
+            datasetStorage = mem;
+        } else {
+            settings.getTdbPath().mkdirs();
+            RDFDatasetStorageTDB2 tdb2 = new RDFDatasetStorageTDB2(settings.getTdbPath().getAbsolutePath());
+            if(settings.getGroupCommitWindow() > 0) {
+                tdb2.enableGroupCommit(settings.getGroupCommitWindow(), settings.getGroupCommitBatchSize());
+            }
+            if(settings.getCompactionInterval() > 0) {
+                tdb2.scheduleCompaction(settings.getCompactionInterval(), settings.getCompactionSizeThreshold());
+            }
+            datasetStorage = tdb2;
+        }
         
         //put ontology in dataset
         if(settings.getOntologyGraph() != null) {
@@ -132,6 +168,13 @@ public class LinkedDataApplication {
         }
     }
     
+    private void initGraphCounter() {
+        if(settings.isTransactionalCounter()) {
+            String graph = settings.getCounterGraph() != null ? settings.getCounterGraph() : serverAddress + "/counter";
+            graphCounter = new GraphCounter(datasetStorage, graph, counter);
+        }
+    }
+    
     private void initFuseki() {
         //registry = new DataAccessPointRegistry();
     }
@@ -171,6 +214,9 @@ public class LinkedDataApplication {
     
     private void initConverter() {
         this.converter = new Converter(serverAddress, settings.getOntologyNamespace());
+        if(settings.getOntologySupplier() != null) {
+            converter.seed(settings.getOntologySupplier().get());
+        }
     }
     
     
@@ -192,8 +238,10 @@ public class LinkedDataApplication {
     public void initResource(LinkedDataResource res) {
         res.datasetStorage = datasetStorage;
         res.freeMarkerEngine = freeMarkerEngine;
+        res.freemarkerConfig = freemarkerConfig;
         res.serverAddress = serverAddress;
         res.counter = counter;
+        res.graphCounter = graphCounter;
         res.authController = authController;
         res.userService = userService;
         res.converter = converter;
@@ -236,9 +284,31 @@ public class LinkedDataApplication {
     public void defaultSparql() {
         initResource(Sparql.class);
     }
+    
+    public void defaultGraphs() {
+        initResource(Graphs.class);
+    }
 
     public RDFDatasetStorage getDatasetStorage() {
         return datasetStorage;
     }
+    
+    /**
+     * The union of all public graphs which is the same for every user.
+     * It is only rebuilt when the public graphs in the settings change.
+     * @return 
+     */
+    public synchronized Graph getPublicGraphUnion() {
+        List<String> publicGraphs = settings.getPublicGraphs();
+        if(publicGraphUnion == null || !publicGraphs.equals(publicGraphUnionNames)) {
+            MultiUnion union = new MultiUnion();
+            for(String graphURI : publicGraphs) {
+                union.addGraph(datasetStorage.getGraph(graphURI).getModel().getGraph());
+            }
+            publicGraphUnion = union;
+            publicGraphUnionNames = new ArrayList<>(publicGraphs);
+        }
+        return publicGraphUnion;
+    }
 
 }
@@ -43,12 +43,43 @@ public class LinkedDataApplicationSettings {
     private Function<Request, RDFGraphStorage> uploadStorage;
     
     private String freemarkerTemplateClasspath;
+    //ms until a cached template is checked for changes again
+    private long templateUpdateDelay;
+    //if true, the render time of each template is logged
+    private boolean templateTiming;
     
     private File tdbPath;
     private File counterPath;
+    //how many IDs a counter reserves at once
+    private int counterBlockSize;
+    //if true, POST counts IDs in the counter graph within its write transaction
+    private boolean transactionalCounter;
+    //default is host + /counter
+    private String counterGraph;
     private File uploadPath;
     
+    //if true, no TDB2 on disk is used but an in-memory dataset
+    private boolean inMemoryStorage;
+    //optional N-Quads snapshot of the in-memory dataset (loaded on start, saved on shutdown)
+    private File snapshotFile;
+    
     private List<String> publicGraphs;
+    
+    //if true, visible graphs are looked up in one quad index scan instead of graph by graph
+    private boolean quadIndexUnion;
+    
+    //writes arriving within this window (ms) are committed together, 0 means no group commit
+    private long groupCommitWindow;
+    private int groupCommitBatchSize;
+    
+    //TDB2 compaction check every n minutes (0 = never), only if grown by threshold bytes (0 = always)
+    private long compactionInterval;
+    private long compactionSizeThreshold;
+    
+    //server-wide cap of a JSON conversion (0 = no limit), truncated output is flagged
+    private int conversionMaxDepth;
+    private int conversionMaxNodes;
+    private long conversionMaxBytes;
 
     public LinkedDataApplicationSettings() {
         port = 8080;
@@ -57,9 +88,19 @@ public class LinkedDataApplicationSettings {
         
         tdbPath = new File("./tdb");
         counterPath = new File("./counter");
+        counterBlockSize = Counter.DEFAULT_BLOCK_SIZE;
         uploadPath = new File("./upload");
         
         publicGraphs = new ArrayList<>();
+        
+        groupCommitWindow = 0;
+        groupCommitBatchSize = 64;
+        
+        conversionMaxDepth = 4;
+        conversionMaxNodes = 50000;
+        conversionMaxBytes = 32 * 1024 * 1024;
+        
+        templateUpdateDelay = 5000;
     }
     
     public int getPort() {
@@ -233,6 +274,30 @@ public class LinkedDataApplicationSettings {
         this.counterPath = counterPath;
     }
 
+    public int getCounterBlockSize() {
+        return counterBlockSize;
+    }
+
+    public void setCounterBlockSize(int counterBlockSize) {
+        this.counterBlockSize = counterBlockSize;
+    }
+
+    public boolean isTransactionalCounter() {
+        return transactionalCounter;
+    }
+
+    public void setTransactionalCounter(boolean transactionalCounter) {
+        this.transactionalCounter = transactionalCounter;
+    }
+
+    public String getCounterGraph() {
+        return counterGraph;
+    }
+
+    public void setCounterGraph(String counterGraph) {
+        this.counterGraph = counterGraph;
+    }
+
     public File getUploadPath() {
         return uploadPath;
     }
@@ -241,6 +306,22 @@ public class LinkedDataApplicationSettings {
         this.uploadPath = uploadPath;
     }
 
+    public boolean isInMemoryStorage() {
+        return inMemoryStorage;
+    }
+
+    public void setInMemoryStorage(boolean inMemoryStorage) {
+        this.inMemoryStorage = inMemoryStorage;
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    public void setSnapshotFile(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
     public List<String> getPublicGraphs() {
         return publicGraphs;
     }
@@ -249,6 +330,86 @@ public class LinkedDataApplicationSettings {
         this.publicGraphs = publicGraphs;
     }
 
+    public boolean isQuadIndexUnion() {
+        return quadIndexUnion;
+    }
+
+    public void setQuadIndexUnion(boolean quadIndexUnion) {
+        this.quadIndexUnion = quadIndexUnion;
+    }
+
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    public void setGroupCommitWindow(long groupCommitWindow) {
+        this.groupCommitWindow = groupCommitWindow;
+    }
+
+    public int getGroupCommitBatchSize() {
+        return groupCommitBatchSize;
+    }
+
+    public void setGroupCommitBatchSize(int groupCommitBatchSize) {
+        this.groupCommitBatchSize = groupCommitBatchSize;
+    }
+
+    public long getCompactionInterval() {
+        return compactionInterval;
+    }
+
+    public void setCompactionInterval(long compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+
+    public long getCompactionSizeThreshold() {
+        return compactionSizeThreshold;
+    }
+
+    public void setCompactionSizeThreshold(long compactionSizeThreshold) {
+        this.compactionSizeThreshold = compactionSizeThreshold;
+    }
+
+    public int getConversionMaxDepth() {
+        return conversionMaxDepth;
+    }
+
+    public void setConversionMaxDepth(int conversionMaxDepth) {
+        this.conversionMaxDepth = conversionMaxDepth;
+    }
+
+    public int getConversionMaxNodes() {
+        return conversionMaxNodes;
+    }
+
+    public void setConversionMaxNodes(int conversionMaxNodes) {
+        this.conversionMaxNodes = conversionMaxNodes;
+    }
+
+    public long getConversionMaxBytes() {
+        return conversionMaxBytes;
+    }
+
+    public void setConversionMaxBytes(long conversionMaxBytes) {
+        this.conversionMaxBytes = conversionMaxBytes;
+    }
+
+    public long getTemplateUpdateDelay() {
+        return templateUpdateDelay;
+    }
+
+    public void setTemplateUpdateDelay(long templateUpdateDelay) {
+        this.templateUpdateDelay = templateUpdateDelay;
+    }
+
+    public boolean isTemplateTiming() {
+        return templateTiming;
+    }
+
+    public void setTemplateTiming(boolean templateTiming) {
+        this.templateTiming = templateTiming;
+    }
+
     public Function<Request, RDFGraphStorage> getUploadStorage() {
         return uploadStorage;
     }
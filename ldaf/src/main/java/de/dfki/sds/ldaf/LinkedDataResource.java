@@ -5,9 +5,22 @@ import com.r6lab.sparkjava.jwt.user.User;
 import com.r6lab.sparkjava.jwt.user.UserService;
 import de.dfki.sds.ldaf.rdf.RDFDatasetStorage;
 import de.dfki.sds.ldaf.rdf.RDFGraphStorage;
+import de.dfki.sds.ldaf.rdf.RDFTypeIndex;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -17,6 +30,9 @@ import java.util.Map.Entry;
 import java.util.StringJoiner;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.apache.commons.io.IOUtils;
 import org.apache.jena.graph.compose.MultiUnion;
 import org.apache.jena.query.ParameterizedSparqlString;
@@ -38,6 +54,7 @@ import org.apache.jena.shared.PrefixMapping;
 import org.apache.jena.system.Txn;
 import org.apache.jena.vocabulary.RDF;
 import org.commonjava.mimeparse.MIMEParse;
+import org.eclipse.jetty.http.DateGenerator;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.MimeTypes;
@@ -54,36 +71,41 @@ import spark.template.freemarker.FreeMarkerEngine;
  */
 public abstract class LinkedDataResource {
 
+    private static final Logger LOG = Logger.getLogger(LinkedDataResource.class.getName());
+
     private static final String SPARQL_PATH = "/de/dfki/sds/ldaf/sparql";
     private static final String QUERY_PARAM_PREFIX = "query_";
+    private static final String UNION_ATTRIBUTE = "ldaf.union";
+    //query parameter of the keyset pagination cursor
+    private static final String AFTER_PARAM = "after";
+    //query parameters of filtered and sorted lists
+    private static final String WHERE_PARAM_PREFIX = "where.";
+    private static final String SORT_PARAM = "sort";
+    private static final String ORDER_PARAM = "order";
+    //query parameters of the projection
+    private static final String FIELDS_PARAM = "fields";
+    private static final String INCOMING_PARAM = "incoming";
     private static final boolean DEBUG_SPARQL = false;
+    
+    //request attribute with the buffer streamed responses are written to
+    private static final String BUFFER_ATTRIBUTE = "ldaf.buffer";
 
     private static int defaultLimit = 4 * 4;
     
     protected LinkedDataApplication ldaf;
     protected RDFDatasetStorage datasetStorage;
     protected FreeMarkerEngine freeMarkerEngine;
+    protected Configuration freemarkerConfig;
     protected String serverAddress;
     protected Counter counter;
+    //null if ids are not counted in the write transaction
+    protected GraphCounter graphCounter;
     protected Converter converter;
     protected UserService userService;
     protected AuthController authController;
     
-    protected Comparator<Resource> resourceComparator = (Resource a, Resource b) -> {
-        
-        int ia = a.getURI().lastIndexOf("/");
-        int ib = b.getURI().lastIndexOf("/");
-        
-        if(ia != -1 && ib != -1) {
-            String lna = a.getURI().substring(ia + 1);
-            String lnb = b.getURI().substring(ib + 1);
-            if(lna.matches("\\d+") && lnb.matches("\\d+")) {
-                return Integer.compare(Integer.parseInt(lna), Integer.parseInt(lnb));
-            }
-        }
-        
-        return a.getURI().compareTo(b.getURI());
-    };
+    //with the default order lists are read from the maintained type index
+    protected Comparator<Resource> resourceComparator = RDFTypeIndex.ID_ORDER;
 
     //override this to init something for the resource
     public void init() {
@@ -94,16 +116,36 @@ public abstract class LinkedDataResource {
     
     /**
      * Visible is all public graphs (settings), user graph, ontology (via supplier), given additional models.
+     * Without additional models the union is created once per request and reused.
      * @param req
      * @param additionalModels
      * @return 
      */
     protected Model getUnionOfVisibleModels(Request req, Model... additionalModels) {
+        if(additionalModels.length > 0) {
+            return createUnionOfVisibleModels(req, additionalModels);
+        }
+        
+        Model union = req.attribute(UNION_ATTRIBUTE);
+        if(union == null) {
+            union = createUnionOfVisibleModels(req);
+            req.attribute(UNION_ATTRIBUTE, union);
+        }
+        return union;
+    }
+    
+    private Model createUnionOfVisibleModels(Request req, Model... additionalModels) {
         List<org.apache.jena.graph.Graph> graphs = new ArrayList<>();
-        for(String graphURI : ldaf.getSettings().getPublicGraphs()) {
-            graphs.add(datasetStorage.getGraph(graphURI).getModel().getGraph());
+        if(ldaf.getSettings().isQuadIndexUnion()) {
+            //public graphs and user graph are looked up together in the dataset
+            List<String> visibleGraphs = new ArrayList<>(ldaf.getSettings().getPublicGraphs());
+            visibleGraphs.add(getUserGraphUri(req));
+            graphs.add(datasetStorage.getUnionModel(visibleGraphs).getGraph());
+        } else {
+            //public part is shared by all users
+            graphs.add(ldaf.getPublicGraphUnion());
+            graphs.add(getUserGraph(req).getModel().getGraph());
         }
-        graphs.add(getUserGraph(req).getModel().getGraph());
         graphs.add(ldaf.getSettings().getOntologySupplier().get().getGraph());
         for(Model m : additionalModels) {
             graphs.add(m.getGraph());
@@ -136,8 +178,16 @@ public abstract class LinkedDataResource {
 
         //TODO later also add the Influence object to the other default* methods
         
-        Spark.get(prefix, (req, resp) -> this.defaultGetList(req, resp, graphFunction, type, name + "list.html", influence));
-        Spark.get(prefix + "/:id", (req, resp) -> this.defaultGet(req, resp, graphFunction, name + ".html"));
+        //the get routes of this resource share one response cache
+        ResponseCache cache = null;
+        if(influence != null && influence.isResponseCache()) {
+            cache = new ResponseCache(influence.getResponseCacheSize());
+            datasetStorage.addVersionListener(cache::invalidate);
+        }
+        ResponseCache responseCache = cache;
+        
+        Spark.get(prefix, (req, resp) -> this.defaultGetList(req, resp, graphFunction, type, name + "list.html", influence, responseCache));
+        Spark.get(prefix + "/:id", (req, resp) -> this.defaultGet(req, resp, graphFunction, name + ".html", responseCache));
         
         Spark.post(prefix, (req, resp) -> this.defaultPost(req, resp, graphFunction, type, name, postUsesAutoincIds));
         Spark.put(prefix + "/:id", (req, resp) -> this.defaultPut(req, resp, graphFunction));
@@ -155,115 +205,223 @@ public abstract class LinkedDataResource {
     }
 
     protected Object defaultGet(Request req, Response resp, Function<Request, RDFGraphStorage> graphFunction, String htmlTemplateName) {
+        return defaultGet(req, resp, graphFunction, htmlTemplateName, null);
+    }
+    
+    protected Object defaultGet(Request req, Response resp, Function<Request, RDFGraphStorage> graphFunction, String htmlTemplateName, ResponseCache cache) {
         Resource res = resource(req);
 
         RDFGraphStorage storage = graphFunction.apply(req);
         
+        //304 if nothing changed
+        List<String> graphs = getResponseGraphs(req, storage);
+        String key = conditionalGet(req, resp, graphs);
+        if(serveCached(resp, cache, key)) {
+            return "";
+        }
+        
         int depth = Integer.parseInt(req.queryParamOrDefault("depth", "1"));
         
-        JSONObject obj = storage.calculateRead(() -> {
-            boolean contains = storage.getModel().containsResource(res);
-            if (!contains) {
-                return null;
-            }
-
-            //get model about subject
-            return converter.toJSON(res, getUnionOfVisibleModels(req), depth);
+        boolean contains = storage.calculateRead(() -> {
+            return storage.getModel().containsResource(res);
         });
 
-        //if model is null there is no resource found
-        if (obj == null) {
+        //if model does not contain it there is no resource found
+        if (!contains) {
             Spark.halt(HttpStatus.NOT_FOUND_404, "resource not found");
         }
 
-        //convert to json
-        //JSONObject obj = converter.toJSON(res, model);
+        //get model about subject
+        Supplier<JSONObject> objSupplier = () -> storage.calculateRead(() -> {
+            Conversion conversion = newConversion(req);
+            JSONObject obj = converter.toJSON(res, getUnionOfVisibleModels(req), depth, conversion);
+            debug(conversion);
+            return obj;
+        });
+        
         //response based on accept header
-        return response(req, resp,
+        return cacheResponse(req, resp, cache, key, graphs, () -> response(req, resp,
                 render -> {
+                    JSONObject obj = objSupplier.get();
                     
                     //direct access data
-                    render.putAll(converter.toRenderModel(obj));
-                    render.put("jsonsrc", obj.toString());
+                    render.putAll(JSONTemplateModel.toRenderModel(obj));
+                    render.put("jsonsrc", new JSONTemplateModel.Source(obj));
                     
                     
                     
                     //if game.html you have "game" as resource name
-                    //render.put(FilenameUtils.getBaseName(htmlTemplateName), converter.toRenderModel(obj));
+                    //render.put(FilenameUtils.getBaseName(htmlTemplateName), JSONTemplateModel.toRenderModel(obj));
                     
                     return htmlTemplateName;
                 },
-                json -> copy(obj, json),
+                json -> copy(objSupplier.get(), json),
                 mod -> {
                     mod.setNsPrefixes(PrefixMapping.Standard);
                     mod.setNsPrefix(ldaf.getSettings().getPrefix(), ldaf.getSettings().getOntologyNamespace());
                     Txn.executeRead(datasetStorage.getDataset(), () -> {
                         mod.add(modelAbout(res, getUnionOfVisibleModels(req)));
                     });
+                },
+                gen -> {
+                    //written while converting, no JSONObject tree in between
+                    storage.executeRead(() -> {
+                        Conversion conversion = newConversion(req);
+                        converter.writeJSON(res, getUnionOfVisibleModels(req), depth, gen, conversion);
+                        debug(conversion);
+                    });
                 }
-        );
+        ));
     }
 
     protected Object defaultGetList(Request req, Response resp, Function<Request, RDFGraphStorage> graphFunction, Resource type, String htmlTemplateName, Influence influence) {
+        return defaultGetList(req, resp, graphFunction, type, htmlTemplateName, influence, null);
+    }
+    
+    protected Object defaultGetList(Request req, Response resp, Function<Request, RDFGraphStorage> graphFunction, Resource type, String htmlTemplateName, Influence influence, ResponseCache cache) {
         RDFGraphStorage storage = graphFunction.apply(req);
         
-        List<Resource> resources = storage.calculateRead(() -> {
-            return storage.getModel().listResourcesWithProperty(RDF.type, type).toList();
-        });
-
-        //sort by uri
-        Collections.sort(resources, resourceComparator);
-        Collections.reverse(resources);
+        //304 if nothing changed
+        List<String> graphs = getResponseGraphs(req, storage);
+        String key = conditionalGet(req, resp, graphs);
+        if(serveCached(resp, cache, key)) {
+            return "";
+        }
         
         //to json
         JSONObject result = new JSONObject();
         JSONUtils.forceLinkedHashMap(result);
         
         List<Resource> sublist;
+        //all resources of the type, only needed for the RDF response
+        Supplier<List<Resource>> resourcesSupplier;
         
-        if(influence != null && influence.isNoSublistInGetList()) {
-            sublist = resources;
-            //MAYBE could also add the other properties
-            result.put("total", sublist.size());
+        if(isQueryList(req)) {
+            //filtered or sorted by a property: the page is selected with SPARQL
+            sublist = calculateQueryList(req, storage, type, result);
+            resourcesSupplier = () -> sublist;
+            
+        } else if(req.queryParams().contains(AFTER_PARAM)) {
+            //keyset mode: only the page is read from the ordered index
+            sublist = calculateKeysetList(req, datasetStorage.getTypeIndex(storage, type), result);
+            resourcesSupplier = () -> sublist;
+            
+        } else if(resourceComparator == RDFTypeIndex.ID_ORDER) {
+            //the index is already sorted and knows its size
+            RDFTypeIndex index = datasetStorage.getTypeIndex(storage, type);
+            resourcesSupplier = index::list;
+
+            if(influence != null && influence.isNoSublistInGetList()) {
+                sublist = index.list();
+                //MAYBE could also add the other properties
+                result.put("total", sublist.size());
+            } else {
+                int[] range = calculateList(req, index.size(), result);
+                sublist = index.page(range[0], range[1] - range[0]);
+            }
+            
         } else {
-            sublist = calculateList(req, resources, result);
+            List<Resource> resources = storage.calculateRead(() -> {
+                return storage.getModel().listResourcesWithProperty(RDF.type, type).toList();
+            });
+
+            //sort by uri
+            Collections.sort(resources, resourceComparator);
+            Collections.reverse(resources);
+            resourcesSupplier = () -> resources;
+
+            if(influence != null && influence.isNoSublistInGetList()) {
+                sublist = resources;
+                //MAYBE could also add the other properties
+                result.put("total", sublist.size());
+            } else {
+                sublist = calculateList(req, resources, result);
+            }
         }
         
-        JSONArray array = new JSONArray();
-        storage.executeRead(() -> {
-            Model union = getUnionOfVisibleModels(req);
-            for(Resource res : sublist) {
-                array.put(converter.toJSON(res, union, 1));
+        //the list is only converted when the response needs it
+        Supplier<JSONObject> resultSupplier = () -> {
+            JSONObjectGenerator list = new JSONObjectGenerator();
+            list.beginArray();
+            Conversion conversion = writeListItems(req, storage, sublist, list);
+            list.endArray();
+            result.put("list", list.getRoot());
+            if(conversion.isTruncated()) {
+                result.put(Converter.TRUNCATED, true);
             }
-        });
-        result.put("list", array);
+
+            //change the json result with your influence object
+            if(influence != null && influence.getConsumeResultInGetList() != null) {
+                influence.getConsumeResultInGetList().accept(result);
+            }
+            return result;
+        };
         
-        //change the json result with your influence object
-        if(influence != null && influence.getConsumeResultInGetList() != null) {
-            influence.getConsumeResultInGetList().accept(result);
+        //an influence consumer needs the complete JSONObject, so it can not be streamed
+        Consumer<JSONGenerator> jsonStreamer = null;
+        if(influence == null || influence.getConsumeResultInGetList() == null) {
+            jsonStreamer = gen -> {
+                gen.beginObject();
+                for(String name : result.keySet()) {
+                    gen.name(name).value(result.get(name));
+                }
+                gen.name("list").beginArray();
+                Conversion conversion = writeListItems(req, storage, sublist, gen);
+                gen.endArray();
+                if(conversion.isTruncated()) {
+                    gen.name(Converter.TRUNCATED).value(true);
+                }
+                gen.endObject();
+            };
         }
         
-        return response(req, resp,
+        Consumer<JSONGenerator> streamer = jsonStreamer;
+        
+        return cacheResponse(req, resp, cache, key, graphs, () -> response(req, resp,
                 render -> {
-                    prepareRenderModel(render, result, req);
+                    prepareRenderModel(render, resultSupplier.get(), req);
                     
                     return htmlTemplateName;
                 },
                 json -> {
-                    copy(result, json);
+                    copy(resultSupplier.get(), json);
                 },
                 mod -> {
-                    for(Resource res : resources) {
+                    for(Resource res : resourcesSupplier.get()) {
                         mod.add(res, RDF.type, type);
                     }
-                }
-        );
+                },
+                streamer
+        ));
+    }
+    
+    /**
+     * Writes the JSON of the page's resources as array elements (for the JSONObject and the streamed list).
+     * One conversion is used for the page to share the referenced resources.
+     * The list result gets the truncated flag, not the items.
+     * @param req
+     * @param storage
+     * @param sublist the page
+     * @param gen inside the array
+     * @return the conversion of the page
+     */
+    private Conversion writeListItems(Request req, RDFGraphStorage storage, List<Resource> sublist, JSONGenerator gen) {
+        Conversion conversion = newConversion(req);
+        conversion.setMarkTruncated(false);
+        storage.executeRead(() -> {
+            Model page = converter.prefetch(sublist, getUnionOfVisibleModels(req), 1, conversion);
+            for(Resource res : sublist) {
+                converter.writeJSON(res, page, 1, gen, conversion);
+            }
+            debug(conversion);
+        });
+        return conversion;
     }
     
     protected void prepareRenderModel(RenderModel render, JSONObject result, Request req) {
         //direct access data
-        render.putAll(converter.toRenderModel(result));
-        render.put("jsonsrc", result.toString());
+        render.putAll(JSONTemplateModel.toRenderModel(result));
+        render.put("jsonsrc", new JSONTemplateModel.Source(result));
 
         //add query params too
         for(String queryParam : req.queryParams()) {
@@ -284,7 +442,19 @@ public abstract class LinkedDataResource {
      * @return 
      */
     protected <T> List<T> calculateList(Request req, List<T> resources, JSONObject result) {
-        int total = resources.size();
+        int[] range = calculateList(req, resources.size(), result);
+        return resources.subList(range[0], range[1]);
+    }
+    
+    /**
+     * Like {@link #calculateList(spark.Request, java.util.List, org.json.JSONObject) }
+     * when only the total number is known, e.g. from an index.
+     * @param req
+     * @param total
+     * @param result
+     * @return from (inclusive) and to (exclusive) index of the page
+     */
+    protected int[] calculateList(Request req, int total, JSONObject result) {
         int offset = Integer.parseInt(req.queryParamOrDefault("offset", "0"));
         if(offset < 0) {
             offset = 0;
@@ -293,8 +463,9 @@ public abstract class LinkedDataResource {
         int pages = limit == 0 ? 0 : ((int) (total / (float) limit) + 1);
         int page = (limit == 0 ? 0 : offset / limit) + 1;
         
-        List<T> sublist = resources.subList(offset, Math.min(offset + limit, resources.size()));
-        int shown = sublist.size();
+        int from = Math.min(offset, total);
+        int to = Math.min(offset + limit, total);
+        int shown = to - from;
         
         //resource and page states
         result.put("total", total);
@@ -343,9 +514,171 @@ public abstract class LinkedDataResource {
             result.put("last", createQueryParameterUri(req, "offset", (total - limit), "limit", limitValue));
         }
         
+        return new int[] { from, to };
+    }
+    
+    /**
+     * Calculates the page after the cursor in the after query parameter
+     * (the id of the previous page's last resource, empty for the first page).
+     * Only limit + 1 resources are read from the index to know if there is a next page.
+     * Puts in result total, shown, limit, first and next (a cursor link).
+     * @param req
+     * @param index
+     * @param result
+     * @return the page
+     */
+    protected List<Resource> calculateKeysetList(Request req, RDFTypeIndex index, JSONObject result) {
+        String after = req.queryParams(AFTER_PARAM);
+        int limit = Integer.parseInt(req.queryParamOrDefault("limit", String.valueOf(defaultLimit)));
+        if(limit < 0) {
+            limit = 0;
+        }
+        
+        //ids are the last path segment of resources created below this route
+        Resource cursor = null;
+        if(after != null && !after.isEmpty()) {
+            cursor = ResourceFactory.createResource(serverAddress + req.uri() + "/" + after);
+        }
+        
+        List<Resource> sublist = index.page(cursor, limit + 1);
+        boolean hasNext = sublist.size() > limit;
+        if(hasNext) {
+            sublist = sublist.subList(0, limit);
+        }
+        
+        Integer limitValue = limit != defaultLimit ? limit : null;
+        
+        result.put("total", index.size());
+        result.put("shown", sublist.size());
+        result.put("limit", limit);
+        
+        result.put("first", createQueryParameterUri(req, AFTER_PARAM, "", "offset", null, "limit", limitValue));
+        if(hasNext && !sublist.isEmpty()) {
+            String uri = sublist.get(sublist.size() - 1).getURI();
+            result.put("next", createQueryParameterUri(req, AFTER_PARAM, uri.substring(uri.lastIndexOf("/") + 1), "offset", null, "limit", limitValue));
+        }
+        
         return sublist;
     }
     
+    private boolean isQueryList(Request req) {
+        for(String param : req.queryParams()) {
+            if(param.startsWith(WHERE_PARAM_PREFIX) || param.equals(SORT_PARAM) || param.equals(ORDER_PARAM)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Selects the page with one SPARQL query against the graph (list.sparql).
+     * Every where.key=value query parameter becomes a triple pattern 
+     * (a value starting with '/' is a path of this application, otherwise the literal is compared),
+     * sort=key and order=desc become the ORDER BY, offset and limit are put in the query.
+     * Without sort the resources are in the order of the type index (order=asc reverses it),
+     * with sort equal values are in this order.
+     * The total is counted in the same read transaction.
+     * Keys are the ones of the JSON representation.
+     * Puts in result the same information as {@link #calculateList(spark.Request, java.util.List, org.json.JSONObject) }.
+     * @param req
+     * @param storage
+     * @param type
+     * @param result
+     * @return the page
+     */
+    protected List<Resource> calculateQueryList(Request req, RDFGraphStorage storage, Resource type, JSONObject result) {
+        StringBuilder filter = new StringBuilder();
+        //values are set as parameters, so they are escaped
+        Map<String, RDFNode> params = new HashMap<>();
+        params.put("graph", ResourceFactory.createResource(storage.getId()));
+        params.put("type", type);
+        
+        int i = 0;
+        for(String param : req.queryParams()) {
+            if(!param.startsWith(WHERE_PARAM_PREFIX)) {
+                continue;
+            }
+            Property property = toQueryProperty(param.substring(WHERE_PARAM_PREFIX.length()));
+            for(String value : req.queryParamsValues(param)) {
+                params.put("where" + i, property);
+                if(value.startsWith("/")) {
+                    filter.append("?s ?where").append(i).append(" ?value").append(i).append(" .\n");
+                    params.put("value" + i, ResourceFactory.createResource(serverAddress + value));
+                } else {
+                    filter.append("?s ?where").append(i).append(" ?object").append(i).append(" . ");
+                    filter.append("FILTER(str(?object").append(i).append(") = ?value").append(i).append(")\n");
+                    params.put("value" + i, ResourceFactory.createPlainLiteral(value));
+                }
+                i++;
+            }
+        }
+        
+        //the id order of the type index (see list.sparql), newest first
+        String idOrder = "DESC(?idRank) DESC(?id) DESC(STR(?s))";
+        String orderParam = req.queryParams(ORDER_PARAM);
+        String sort = "";
+        String order;
+        String sortKey = req.queryParams(SORT_PARAM);
+        if(sortKey != null && !sortKey.isEmpty()) {
+            params.put("sortProperty", toQueryProperty(sortKey));
+            sort = "OPTIONAL { ?s ?sortProperty ?sort }";
+            order = "ORDER BY " + ("desc".equalsIgnoreCase(orderParam) ? "DESC(?sort)" : "?sort") + " " + idOrder;
+        } else {
+            //newest first like the other lists
+            order = "ORDER BY " + ("asc".equalsIgnoreCase(orderParam) ? "?idRank ?id STR(?s)" : idOrder);
+        }
+        
+        ParameterizedSparqlString listQuery = getQuery("list.sparql");
+        listQuery.setCommandText(listQuery.getCommandText()
+                .replace("#filter", filter)
+                .replace("#sort", sort)
+                .replace("#order", order));
+        
+        ParameterizedSparqlString countQuery = getQuery("listCount.sparql");
+        countQuery.setCommandText(countQuery.getCommandText().replace("#filter", filter));
+        
+        for(Entry<String, RDFNode> e : params.entrySet()) {
+            listQuery.setParam(e.getKey(), e.getValue());
+            countQuery.setParam(e.getKey(), e.getValue());
+        }
+        
+        return storage.calculateRead(() -> {
+            QueryExecution qe = QueryExecutionFactory.create(countQuery.asQuery(), datasetStorage.getDataset());
+            int total = qe.execSelect().next().getLiteral("total").getInt();
+            qe.close();
+            
+            int[] range = calculateList(req, total, result);
+            
+            Query query = listQuery.asQuery();
+            query.setOffset(range[0]);
+            query.setLimit(range[1] - range[0]);
+            
+            List<Resource> page = new ArrayList<>();
+            qe = QueryExecutionFactory.create(query, datasetStorage.getDataset());
+            ResultSet rs = qe.execSelect();
+            while(rs.hasNext()) {
+                page.add(rs.next().getResource("s"));
+            }
+            qe.close();
+            
+            if (DEBUG_SPARQL) {
+                System.out.println(query.toString().trim());
+                System.out.println(page.size() + " of " + total + " results");
+                System.out.println();
+            }
+            
+            return page;
+        });
+    }
+    
+    private Property toQueryProperty(String key) {
+        Property property = converter.toProperty(key);
+        if(property == null) {
+            Spark.halt(HttpStatus.BAD_REQUEST_400, "can not filter or sort by " + key);
+        }
+        return property;
+    }
+    
     protected String createQueryParameterUri(Request req, Object... keyValueParams) {
         Map<String, String[]> qpm = req.queryMap().toMap();
         
@@ -382,38 +715,51 @@ public abstract class LinkedDataResource {
         
         JSONObject json = new JSONObject(req.body());
         
-        String uri;
+        RDFGraphStorage storage = graphFunction.apply(req);
+        
         String path;
-        if(postUsesAutoincIds) {
-            int id = counter.getIncreased(counterName);
-            path = req.uri() + "/" + id;
-            uri = serverAddress + path;
+        if(postUsesAutoincIds && graphCounter != null) {
+            //id is counted in the same transaction, so it is only used if the data is written
+            path = storage.calculateWrite(() -> {
+                String p = req.uri() + "/" + graphCounter.getIncreased(counterName);
+                storage.getModel().add(toPostModel(p, json, type));
+                return p;
+            });
         } else {
-            if(!json.has("id")) {
-                Spark.halt(HttpStatus.BAD_REQUEST_400, "id not found");
+            if(postUsesAutoincIds) {
+                int id = counter.getIncreased(counterName);
+                path = req.uri() + "/" + id;
+            } else {
+                if(!json.has("id")) {
+                    Spark.halt(HttpStatus.BAD_REQUEST_400, "id not found");
+                }
+                path = req.uri() + "/" + json.getString("id");
+                json.remove("id");
             }
-            path = req.uri() + "/" + json.getString("id");
-            uri = serverAddress + path;
-            json.remove("id");
+            
+            Model model = toPostModel(path, json, type);
+            
+            storage.executeWrite(() -> {
+                storage.getModel().add(model);
+            });
         }
-        
-        Resource res = ResourceFactory.createResource(uri);
-
-        Model model = converter.toModel(res.getURI(), json);
-
-        //to have at least one triple about it
-        model.add(res, RDF.type, type);
-
-        RDFGraphStorage storage = graphFunction.apply(req);
-        storage.executeWrite(() -> {
-            storage.getModel().add(model);
-        });
 
         resp.header(HttpHeader.LOCATION.asString(), path);
         resp.status(HttpStatus.CREATED_201);
 
         return "";
     }
+    
+    private Model toPostModel(String path, JSONObject json, Resource type) {
+        Resource res = ResourceFactory.createResource(serverAddress + path);
+
+        Model model = converter.toModel(res.getURI(), json);
+
+        //to have at least one triple about it
+        model.add(res, RDF.type, type);
+        
+        return model;
+    }
 
     protected Object defaultPut(Request req, Response resp, Function<Request, RDFGraphStorage> graphFunction) {
         Resource res = resource(req);
@@ -556,6 +902,7 @@ public abstract class LinkedDataResource {
     protected Object defaultDeleteAll(Request req, Response resp, Function<Request, RDFGraphStorage> graphFunction, Resource type) {
         RDFGraphStorage storage = graphFunction.apply(req);
         
+        //not the type index: it has no blank nodes
         List<Resource> toBeDeleted = storage.calculateRead(() -> {
             return storage.getModel().listSubjectsWithProperty(RDF.type, type).toList();
         });
@@ -575,25 +922,28 @@ public abstract class LinkedDataResource {
             Function<RenderModel, String> renderFunction,
             Consumer<JSONObject> jsonConsumer,
             Consumer<Model> rdfConsumer) {
+        return response(req, resp, renderFunction, jsonConsumer, rdfConsumer, null);
+    }
+    
+    /**
+     * Like the other response method, but if a jsonStreamer is given
+     * the JSON is written with it directly to the response output stream
+     * (jsonConsumer is not used then).
+     * @param req
+     * @param resp
+     * @param renderFunction
+     * @param jsonConsumer
+     * @param rdfConsumer
+     * @param jsonStreamer
+     * @return 
+     */
+    protected Object response(Request req, Response resp,
+            Function<RenderModel, String> renderFunction,
+            Consumer<JSONObject> jsonConsumer,
+            Consumer<Model> rdfConsumer,
+            Consumer<JSONGenerator> jsonStreamer) {
 
-        String accept = req.headers(HttpHeader.ACCEPT.asString());
-        if(accept == null) {
-            accept = MimeTypes.Type.APPLICATION_JSON.asString();
-        }
-
-        List<String> supported = new ArrayList<>();
-
-        if (rdfConsumer != null) {
-            supported.add("text/turtle");
-        }
-        if (jsonConsumer != null) {
-            supported.add("application/json");
-        }
-        if (renderFunction != null) {
-            supported.add("text/html");
-        }
-
-        String match = MIMEParse.bestMatch(supported, accept);
+        String match = negotiate(req, renderFunction != null, jsonConsumer != null || jsonStreamer != null, rdfConsumer != null);
 
         Object result = null;
         switch (match) {
@@ -601,11 +951,17 @@ public abstract class LinkedDataResource {
                 resp.type("text/html");
                 RenderModel model = getDefaultModel(req);
                 String templateName = renderFunction.apply(model);
-                result = render(model, templateName);
+                streamRender(req, resp, model, templateName);
+                result = "";
                 break;
             }
             case "application/json": {
                 resp.type("application/json");
+                if(jsonStreamer != null) {
+                    streamJSON(req, resp, jsonStreamer);
+                    result = "";
+                    break;
+                }
                 JSONObject json = new JSONObject();
                 JSONUtils.forceLinkedHashMap(json);
                 jsonConsumer.accept(json);
@@ -630,9 +986,283 @@ public abstract class LinkedDataResource {
         return result;
     }
     
+    /**
+     * The best matching media type for the request's accept header
+     * ("" if none is supported).
+     * @param req
+     * @param html
+     * @param json
+     * @param turtle
+     * @return 
+     */
+    protected String negotiate(Request req, boolean html, boolean json, boolean turtle) {
+        String accept = req.headers(HttpHeader.ACCEPT.asString());
+        if(accept == null) {
+            accept = MimeTypes.Type.APPLICATION_JSON.asString();
+        }
+
+        List<String> supported = new ArrayList<>();
+
+        if (turtle) {
+            supported.add("text/turtle");
+        }
+        if (json) {
+            supported.add("application/json");
+        }
+        if (html) {
+            supported.add("text/html");
+        }
+
+        return MIMEParse.bestMatch(supported, accept);
+    }
+    
+    /**
+     * Graphs a user can see: the public ones and the own graph.
+     * @param req
+     * @return 
+     */
+    protected List<String> getVisibleGraphUris(Request req) {
+        List<String> graphs = new ArrayList<>(ldaf.getSettings().getPublicGraphs());
+        graphs.add(getUserGraphUri(req));
+        return graphs;
+    }
+    
+    /**
+     * The graphs a default get route reads: the visible ones and the storage.
+     * @param req
+     * @param storage the graph the route reads (can be null)
+     * @return 
+     */
+    protected List<String> getResponseGraphs(Request req, RDFGraphStorage storage) {
+        List<String> graphs = getVisibleGraphUris(req);
+        if(storage != null && !graphs.contains(storage.getId())) {
+            graphs.add(storage.getId());
+        }
+        return graphs;
+    }
+    
+    /**
+     * Sets a strong ETag (and Last-Modified) derived from the versions 
+     * of the given graphs. Halts with 304 if the 
+     * request's If-None-Match has it, so nothing has to be converted.
+     * @param req
+     * @param resp
+     * @param graphs the graphs the response is made from
+     * @return the representation key (also used for the response cache)
+     */
+    protected String conditionalGet(Request req, Response resp, List<String> graphs) {
+        String key = getRepresentationKey(req, graphs);
+        String etag = "\"" + hash(key) + "\"";
+        
+        resp.header(HttpHeader.ETAG.asString(), etag);
+        resp.header(HttpHeader.LAST_MODIFIED.asString(), DateGenerator.formatDate(datasetStorage.getLastModified(graphs)));
+        //user dependent and always revalidated with the ETag
+        resp.header(HttpHeader.CACHE_CONTROL.asString(), "private, no-cache");
+        resp.header(HttpHeader.VARY.asString(), HttpHeader.ACCEPT.asString());
+        
+        String ifNoneMatch = req.headers(HttpHeader.IF_NONE_MATCH.asString());
+        if(ifNoneMatch != null) {
+            for(String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                //weak comparison
+                if(tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if(tag.equals("*") || tag.equals(etag)) {
+                    Spark.halt(HttpStatus.NOT_MODIFIED_304);
+                }
+            }
+        }
+        return key;
+    }
+    
+    /**
+     * Writes the cached response if there is one for the key.
+     * @param resp
+     * @param cache can be null
+     * @param key
+     * @return true if the response was written
+     */
+    protected boolean serveCached(Response resp, ResponseCache cache, String key) {
+        if(cache == null) {
+            return false;
+        }
+        ResponseCache.Entry entry = cache.get(key);
+        if(entry == null) {
+            return false;
+        }
+        resp.type(entry.getContentType());
+        try {
+            OutputStream out = resp.raw().getOutputStream();
+            out.write(entry.getBody());
+            out.flush();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return true;
+    }
+    
+    /**
+     * Makes the response with the responder. If a cache is given, streamed 
+     * output is buffered instead, put in the cache and written afterwards.
+     * @param req
+     * @param resp
+     * @param cache can be null
+     * @param key
+     * @param graphs the graphs the response is made from
+     * @param responder
+     * @return 
+     */
+    protected Object cacheResponse(Request req, Response resp, ResponseCache cache, String key, List<String> graphs, Supplier<Object> responder) {
+        if(cache == null) {
+            return responder.get();
+        }
+        
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        req.attribute(BUFFER_ATTRIBUTE, buffer);
+        Object result;
+        try {
+            result = responder.get();
+        } finally {
+            req.raw().removeAttribute(BUFFER_ATTRIBUTE);
+        }
+        
+        byte[] body;
+        if(buffer.size() > 0) {
+            body = buffer.toByteArray();
+            try {
+                OutputStream out = resp.raw().getOutputStream();
+                out.write(body);
+                out.flush();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        } else {
+            body = String.valueOf(result).getBytes(StandardCharsets.UTF_8);
+        }
+        
+        if(resp.raw().getStatus() == HttpStatus.OK_200) {
+            cache.put(key, resp.type(), body, graphs);
+        }
+        return result;
+    }
+    
+    /**
+     * Where streamed responses are written to: the response output stream
+     * or a buffer if the response is cached.
+     * @param req
+     * @param resp
+     * @return
+     * @throws IOException 
+     */
+    protected OutputStream getOutputStream(Request req, Response resp) throws IOException {
+        OutputStream buffer = req.attribute(BUFFER_ATTRIBUTE);
+        if(buffer != null) {
+            return buffer;
+        }
+        return resp.raw().getOutputStream();
+    }
+    
+    //path, query, negotiated type, user and the graph versions
+    protected String getRepresentationKey(Request req, List<String> graphs) {
+        return req.pathInfo() + "?" + req.queryString() + "\n" + 
+               negotiate(req, true, true, true) + "\n" + 
+               getUserGraphUri(req) + "\n" + 
+               datasetStorage.getVersionTag(graphs);
+    }
+    
+    private String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for(byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    protected void streamJSON(Request req, Response resp, Consumer<JSONGenerator> jsonStreamer) {
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(getOutputStream(req, resp), StandardCharsets.UTF_8));
+            JSONStreamGenerator gen = new JSONStreamGenerator(writer);
+            jsonStreamer.accept(gen);
+            //commits the response, so spark does not write a body anymore
+            gen.flush();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    /**
+     * A conversion limited by the server-wide caps in the settings.
+     * @return 
+     */
+    protected Conversion newConversion() {
+        LinkedDataApplicationSettings settings = ldaf.getSettings();
+        return new Conversion(settings.getConversionMaxNodes(), settings.getConversionMaxBytes(), settings.getConversionMaxDepth());
+    }
+    
+    /**
+     * A conversion with the projection of the request:
+     * fields=key1,key2 only writes these keys of the requested resources
+     * and incoming=false leaves out their incoming links.
+     * @param req
+     * @return 
+     */
+    protected Conversion newConversion(Request req) {
+        Conversion conversion = newConversion();
+        String fields = req.queryParams(FIELDS_PARAM);
+        if(fields != null && !fields.trim().isEmpty()) {
+            List<String> keys = new ArrayList<>();
+            for(String field : fields.split(",")) {
+                if(!field.trim().isEmpty()) {
+                    keys.add(field.trim());
+                }
+            }
+            conversion.setFields(keys);
+        }
+        if("false".equalsIgnoreCase(req.queryParams(INCOMING_PARAM))) {
+            conversion.setIncoming(false);
+        }
+        return conversion;
+    }
+    
+    //memo hits (saved lookups), misses and the used budget, logged at FINE
+    private void debug(Conversion conversion) {
+        LOG.log(Level.FINE, "{0}", conversion);
+    }
+    
     protected String render(RenderModel m, String templateName) {
         return freeMarkerEngine.render(new ModelAndView(m, templateName));
     }
+    
+    /**
+     * Processes the template directly into the response output stream
+     * instead of rendering the page to a string first.
+     * @param req
+     * @param resp
+     * @param m
+     * @param templateName 
+     */
+    protected void streamRender(Request req, Response resp, RenderModel m, String templateName) {
+        long begin = System.currentTimeMillis();
+        try {
+            Template template = freemarkerConfig.getTemplate(templateName);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(getOutputStream(req, resp), StandardCharsets.UTF_8));
+            template.process(m, writer);
+            //commits the response, so spark does not write a body anymore
+            writer.flush();
+        } catch (IOException | TemplateException ex) {
+            throw new RuntimeException(ex);
+        }
+        //logged: the response is already committed, so a header is not possible anymore
+        if (ldaf.getSettings().isTemplateTiming()) {
+            LOG.info(templateName + " rendered in " + (System.currentTimeMillis() - begin) + " ms");
+        }
+    }
 
     protected List<QuerySolution> query(ParameterizedSparqlString pss) {
         return Txn.calculateRead(datasetStorage.getDataset(), () -> {
@@ -750,6 +1380,17 @@ public abstract class LinkedDataResource {
         );
     }
 
+    /**
+     * Like {@link #modelAbout(org.apache.jena.rdf.model.Resource, org.apache.jena.rdf.model.Model) }
+     * but the given graphs are looked up together with the dataset storage.
+     * @param resource
+     * @param graphs graph URIs
+     * @return 
+     */
+    protected Model modelAbout(Resource resource, Collection<String> graphs) {
+        return modelAbout(resource, datasetStorage.getUnionModel(graphs));
+    }
+
     protected void copy(JSONObject src, JSONObject trg) {
         for (String key : src.keySet()) {
             trg.put(key, src.get(key));
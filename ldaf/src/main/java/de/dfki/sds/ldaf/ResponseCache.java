@@ -0,0 +1,106 @@
+package de.dfki.sds.ldaf;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of complete responses (content type and body). 
+ * The key contains the versions of the graphs the response was made from,
+ * and entries are removed as soon as one of these graphs is written.
+ */
+public class ResponseCache {
+
+    public static final int DEFAULT_SIZE = 256;
+    
+    private Map<String, Entry> entries;
+    
+    private AtomicLong hits;
+    private AtomicLong misses;
+
+    public ResponseCache() {
+        this(DEFAULT_SIZE);
+    }
+    
+    public ResponseCache(int size) {
+        entries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > size;
+            }
+        });
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+    
+    public Entry get(String key) {
+        Entry entry = entries.get(key);
+        if(entry != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return entry;
+    }
+    
+    public void put(String key, String contentType, byte[] body, Collection<String> graphs) {
+        entries.put(key, new Entry(contentType, body, graphs));
+    }
+    
+    /**
+     * Removes the entries made from the graph (all if graph is null).
+     * @param graph graph URI or null
+     */
+    public void invalidate(String graph) {
+        if(graph == null) {
+            entries.clear();
+            return;
+        }
+        synchronized(entries) {
+            Iterator<Entry> iter = entries.values().iterator();
+            while(iter.hasNext()) {
+                if(iter.next().graphs.contains(graph)) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    public static class Entry {
+        
+        private String contentType;
+        private byte[] body;
+        private Collection<String> graphs;
+
+        public Entry(String contentType, byte[] body, Collection<String> graphs) {
+            this.contentType = contentType;
+            this.body = body;
+            this.graphs = graphs;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+        
+    }
+    
+}
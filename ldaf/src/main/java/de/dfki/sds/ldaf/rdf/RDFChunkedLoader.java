@@ -0,0 +1,97 @@
+package de.dfki.sds.ldaf.rdf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+
+/**
+ * Receives parsed triples and writes them chunk by chunk into a graph storage.
+ * Every chunk is committed in its own write transaction, so only one chunk
+ * is kept in memory. Quads are put in the graph of the storage too.
+ */
+public class RDFChunkedLoader implements StreamRDF {
+
+    private RDFGraphStorage storage;
+    private int chunkSize;
+    private LongConsumer progress;
+    
+    private List<Triple> chunk;
+    private long count;
+    private long chunks;
+    
+    /**
+     * @param storage the target graph
+     * @param chunkSize number of triples per transaction
+     * @param progress gets the number of triples loaded so far after each chunk (can be null)
+     */
+    public RDFChunkedLoader(RDFGraphStorage storage, int chunkSize, LongConsumer progress) {
+        this.storage = storage;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.progress = progress;
+        this.chunk = new ArrayList<>(this.chunkSize);
+    }
+    
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        chunk.add(triple);
+        if(chunk.size() >= chunkSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        triple(quad.asTriple());
+    }
+
+    @Override
+    public void base(String base) {
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+    }
+
+    @Override
+    public void finish() {
+        flush();
+    }
+    
+    private void flush() {
+        if(chunk.isEmpty()) {
+            return;
+        }
+        
+        storage.executeWrite(() -> {
+            Graph g = storage.getModel().getGraph();
+            for(Triple t : chunk) {
+                g.add(t);
+            }
+        });
+        
+        count += chunk.size();
+        chunks++;
+        chunk.clear();
+        
+        if(progress != null) {
+            progress.accept(count);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getChunks() {
+        return chunks;
+    }
+    
+}
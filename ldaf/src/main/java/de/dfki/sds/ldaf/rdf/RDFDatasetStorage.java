@@ -1,13 +1,60 @@
 package de.dfki.sds.ldaf.rdf;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Quad;
+import org.apache.jena.system.Txn;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NullIterator;
+import org.apache.jena.util.iterator.SingletonIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
 
 /**
  * Manages named graphs.
  */
 public abstract class RDFDatasetStorage {
     
+    //versions of the graphs since the start, bumped after committed writes
+    private final long epoch = System.currentTimeMillis();
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastModified = new ConcurrentHashMap<>();
+    //for writes which can change every graph
+    private final AtomicLong datasetVersion = new AtomicLong();
+    private volatile long datasetLastModified = epoch;
+    //graphs written in a not yet committed transaction of this thread
+    private final ThreadLocal<Set<String>> uncommitted = ThreadLocal.withInitial(HashSet::new);
+    //get the graph URI after its version was bumped (null after a dataset write)
+    private final List<Consumer<String>> versionListeners = new CopyOnWriteArrayList<>();
+    //ordered resources per graph and type, kept up to date after each write
+    private final RDFTypeIndexes typeIndexes = new RDFTypeIndexes();
+    
     public abstract void addGraph(String uri);
     
     public abstract void removeGraph(String uri);
@@ -20,4 +67,269 @@ public abstract class RDFDatasetStorage {
     
     public abstract RDFGraphStorage getGraph(String uri);
     
+    /**
+     * Finds the triples matching the pattern in any of the given graphs.
+     * Triples which are in more than one graph are returned only once.
+     * Has to be called in a read or write transaction.
+     * This default implementation asks every graph one after another.
+     * @param graphs graph URIs
+     * @param s subject or Node.ANY
+     * @param p predicate or Node.ANY
+     * @param o object or Node.ANY
+     * @return 
+     */
+    public ExtendedIterator<Triple> find(Collection<String> graphs, Node s, Node p, Node o) {
+        List<Graph> list = new ArrayList<>();
+        for(String graph : new LinkedHashSet<>(graphs)) {
+            list.add(getGraph(graph).getModel().getGraph());
+        }
+        ExtendedIterator<Triple> result = NullIterator.instance();
+        for(Graph graph : list) {
+            result = result.andThen(graph.find(s, p, o));
+        }
+        return distinct(result, list.size());
+    }
+    
+    /**
+     * Finds the triples with the quad indexes of the dataset:
+     * every graph is looked up directly (GSPO, GPOS, GOSP), 
+     * so quads of other graphs are never scanned.
+     * Triples of more than one graph are dropped with the set of the returned ones
+     * (see {@link #distinct(ExtendedIterator, int)}).
+     * @param graphs graph URIs
+     * @param s subject or Node.ANY
+     * @param p predicate or Node.ANY
+     * @param o object or Node.ANY
+     * @return 
+     */
+    protected ExtendedIterator<Triple> findQuads(Collection<String> graphs, Node s, Node p, Node o) {
+        DatasetGraph dsg = getDataset().asDatasetGraph();
+        
+        List<Node> graphNodes = new ArrayList<>();
+        for(String graph : new LinkedHashSet<>(graphs)) {
+            graphNodes.add(NodeFactory.createURI(graph));
+        }
+        
+        //a concrete pattern is at most one triple: the first graph which has it
+        if(graphNodes.size() > 1 && s.isConcrete() && p.isConcrete() && o.isConcrete()) {
+            for(Node g : graphNodes) {
+                if(dsg.contains(g, s, p, o)) {
+                    return new SingletonIterator<>(Triple.create(s, p, o));
+                }
+            }
+            return NullIterator.instance();
+        }
+        
+        ExtendedIterator<Triple> result = NullIterator.instance();
+        for(Node g : graphNodes) {
+            result = result.andThen(WrappedIterator.create(dsg.find(g, s, p, o)).mapWith(Quad::asTriple));
+        }
+        return distinct(result, graphNodes.size());
+    }
+    
+    /**
+     * Drops the triples which were returned already (by an earlier graph).
+     * The set of returned triples only grows as far as the caller iterates
+     * (e.g. a page), and is not needed for a single graph.
+     * @param triples
+     * @param graphs number of graphs the triples come from
+     * @return 
+     */
+    private static ExtendedIterator<Triple> distinct(ExtendedIterator<Triple> triples, int graphs) {
+        if(graphs <= 1) {
+            return triples;
+        }
+        Set<Triple> returned = new HashSet<>();
+        return triples.filterKeep(returned::add);
+    }
+    
+    /**
+     * Streams RDF into a named graph and commits it chunk by chunk.
+     * Quads are put in the given graph too.
+     * @param graph graph URI
+     * @param in the RDF data
+     * @param lang the RDF syntax of the data
+     * @param chunkSize number of triples per transaction
+     * @param progress gets the number of triples loaded so far (can be null)
+     * @return number of loaded triples
+     */
+    public long importGraph(String graph, InputStream in, Lang lang, int chunkSize, LongConsumer progress) {
+        RDFChunkedLoader loader = new RDFChunkedLoader(getGraph(graph), chunkSize, progress);
+        RDFParser.source(in).lang(lang).parse(loader);
+        return loader.getCount();
+    }
+    
+    /**
+     * Streams the given graphs in one read transaction to the output stream.
+     * Nothing is buffered, so the memory use does not depend on the graph size.
+     * @param graphs graph URIs
+     * @param out where the data is written to
+     * @param lang N-Triples (graph names are lost) or N-Quads
+     * @return number of written triples
+     */
+    public long exportGraphs(Collection<String> graphs, OutputStream out, Lang lang) {
+        boolean quads = RDFLanguages.isQuads(lang);
+        return Txn.calculateRead(getDataset(), () -> {
+            DatasetGraph dsg = getDataset().asDatasetGraph();
+            StreamRDF writer = StreamRDFWriter.getWriterStream(out, lang);
+            long count = 0;
+            writer.start();
+            for(String graph : graphs) {
+                Iterator<Quad> iter = dsg.find(NodeFactory.createURI(graph), Node.ANY, Node.ANY, Node.ANY);
+                while(iter.hasNext()) {
+                    Quad q = iter.next();
+                    if(quads) {
+                        writer.quad(q);
+                    } else {
+                        writer.triple(q.asTriple());
+                    }
+                    count++;
+                }
+            }
+            writer.finish();
+            return count;
+        });
+    }
+    
+    /**
+     * A read-only model which is the union of the given graphs.
+     * All lookups are done with {@link #find(java.util.Collection, org.apache.jena.graph.Node, org.apache.jena.graph.Node, org.apache.jena.graph.Node) }.
+     * @param graphs graph URIs
+     * @return 
+     */
+    public Model getUnionModel(Collection<String> graphs) {
+        return ModelFactory.createModelForGraph(new RDFUnionGraph(this, graphs));
+    }
+    
+    /**
+     * Called after a write to the graph. Outside of a transaction the 
+     * graph's version is bumped at once. Inside a transaction it is bumped
+     * when the outer write of this thread is done (see {@link #writesCommitted()}),
+     * so a new version never shows uncommitted data.
+     * @param graph graph URI
+     */
+    public void graphWritten(String graph) {
+        uncommitted.get().add(graph);
+        if(!getDataset().isInTransaction()) {
+            writesCommitted();
+        }
+    }
+    
+    /**
+     * Bumps the versions of the graphs written in this thread's last transaction.
+     */
+    public void writesCommitted() {
+        //the type changes of the write are done before the new versions are visible
+        typeIndexes.apply(this);
+        
+        Set<String> graphs = uncommitted.get();
+        if(graphs.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for(String graph : graphs) {
+            versions.computeIfAbsent(graph, g -> new AtomicLong()).incrementAndGet();
+            lastModified.put(graph, now);
+        }
+        //listeners could write themselves
+        List<String> bumped = new ArrayList<>(graphs);
+        graphs.clear();
+        for(String graph : bumped) {
+            for(Consumer<String> listener : versionListeners) {
+                listener.accept(graph);
+            }
+        }
+    }
+    
+    /**
+     * Called after a write which can have changed any graph.
+     */
+    public void datasetWritten() {
+        typeIndexes.clear();
+        datasetVersion.incrementAndGet();
+        datasetLastModified = System.currentTimeMillis();
+        for(Consumer<String> listener : versionListeners) {
+            listener.accept(null);
+        }
+    }
+    
+    /**
+     * The listener gets the graph URI after the graph's version was bumped 
+     * or null after a write which can have changed any graph.
+     * @param listener 
+     */
+    public void addVersionListener(Consumer<String> listener) {
+        versionListeners.add(listener);
+    }
+    
+    public void removeVersionListener(Consumer<String> listener) {
+        versionListeners.remove(listener);
+    }
+    
+    /**
+     * Number of committed writes to the graph since the start.
+     * @param graph graph URI
+     * @return 
+     */
+    public long getVersion(String graph) {
+        AtomicLong version = versions.get(graph);
+        return version == null ? 0 : version.get();
+    }
+    
+    /**
+     * The resources of the type in the graph ordered by id.
+     * The index is built on first use and then changed with every committed write.
+     * @param storage the graph
+     * @param type rdf:type
+     * @return 
+     */
+    public RDFTypeIndex getTypeIndex(RDFGraphStorage storage, Resource type) {
+        return typeIndexes.get(storage, type);
+    }
+    
+    public RDFTypeIndexes getTypeIndexes() {
+        return typeIndexes;
+    }
+    
+    public long getDatasetVersion() {
+        return datasetVersion.get();
+    }
+    
+    /**
+     * The time this storage was started. Versions start again from zero then.
+     * @return 
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+    
+    /**
+     * A tag which changes whenever one of the graphs was written 
+     * (also after a restart).
+     * @param graphs graph URIs
+     * @return 
+     */
+    public String getVersionTag(Collection<String> graphs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(epoch).append('-').append(datasetVersion.get());
+        for(String graph : graphs) {
+            sb.append(' ').append(graph).append('=').append(getVersion(graph));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Time of the last committed write to one of the graphs 
+     * (the start time if there was none).
+     * @param graphs graph URIs
+     * @return 
+     */
+    public long getLastModified(Collection<String> graphs) {
+        long max = datasetLastModified;
+        for(String graph : graphs) {
+            max = Math.max(max, lastModified.getOrDefault(graph, epoch));
+        }
+        return max;
+    }
+    
 }
@@ -0,0 +1,173 @@
+package de.dfki.sds.ldaf.rdf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.system.Txn;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * A transactional in-memory implementation of RDFDatasetStorage (Jena TIM).
+ * Optionally the data is loaded from and saved to a snapshot file (N-Quads).
+ */
+public class RDFDatasetStorageMem extends RDFDatasetStorage {
+
+    private Dataset dataset;
+    
+    //can be null
+    private File snapshotFile;
+    
+    private Map<String, RDFGraphStorage> graphCache;
+    
+    public RDFDatasetStorageMem() {
+        this(null);
+    }
+    
+    public RDFDatasetStorageMem(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        dataset = DatasetFactory.createTxnMem();
+        graphCache = new ConcurrentHashMap<>();
+        
+        if(snapshotFile != null && snapshotFile.exists()) {
+            loadSnapshot(snapshotFile);
+        }
+    }
+    
+    public void loadSnapshot(File file) {
+        Txn.executeWrite(dataset, () -> {
+            RDFDataMgr.read(dataset, file.getAbsolutePath(), Lang.NQUADS);
+        });
+        datasetWritten();
+    }
+    
+    /**
+     * Saves the dataset to the snapshot file given in the constructor.
+     * Does nothing if there is none.
+     */
+    public void saveSnapshot() {
+        if(snapshotFile != null) {
+            saveSnapshot(snapshotFile);
+        }
+    }
+    
+    /**
+     * Writes the dataset in a read transaction as N-Quads to a temporary file 
+     * which replaces the given file when it is complete.
+     * @param file 
+     */
+    public void saveSnapshot(File file) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tmp = new File(parent, file.getName() + ".tmp");
+        
+        Txn.executeRead(dataset, () -> {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                RDFDataMgr.write(out, dataset, Lang.NQUADS);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    public void clear() {
+        Txn.executeWrite(dataset, () -> {
+            for(String name : getGraphNames()) {
+                dataset.removeNamedModel(name);
+            }
+        });
+        graphCache.clear();
+        datasetWritten();
+    }
+
+    public long size() {
+        return getGraphNames().size();
+    }
+
+    public void close() {
+        graphCache.clear();
+        dataset.close();
+    }
+    
+    @Override
+    public List<String> getGraphNames() {
+        return Txn.calculateRead(dataset, () -> {
+            List<String> result = new ArrayList<>();
+            dataset.listNames().forEachRemaining(result::add);
+            return result;
+        });
+    }
+
+    @Override
+    public void addGraph(String uri) {
+        Txn.executeWrite(dataset, () -> {
+            Model m = ModelFactory.createDefaultModel();
+            m.add(ResourceFactory.createResource(uri), RDF.type, RDFS.Container);
+            dataset.addNamedModel(uri, m);
+        });
+        //not written through a graph storage
+        getTypeIndexes().invalidate(uri);
+        graphWritten(uri);
+    }
+
+    @Override
+    public void removeGraph(String uri) {
+        Txn.executeWrite(dataset, () -> {
+            dataset.removeNamedModel(uri);
+        });
+        graphCache.remove(uri);
+        getTypeIndexes().invalidate(uri);
+        graphWritten(uri);
+    }
+
+    @Override
+    public boolean containsGraph(String uri) {
+        return Txn.calculateRead(dataset, () -> {
+            return dataset.containsNamedModel(uri);
+        });
+    }
+
+    @Override
+    public Dataset getDataset() {
+        return dataset;
+    }
+
+    @Override
+    public RDFGraphStorage getGraph(String uri) {
+        return graphCache.computeIfAbsent(uri, u -> new RDFGraphStorageMem(u, dataset, this));
+    }
+    
+    @Override
+    public ExtendedIterator<Triple> find(Collection<String> graphs, Node s, Node p, Node o) {
+        return findQuads(graphs, s, p, o);
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+    
+}
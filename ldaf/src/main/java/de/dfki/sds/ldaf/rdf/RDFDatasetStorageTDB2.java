@@ -1,15 +1,50 @@
 package de.dfki.sds.ldaf.rdf;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.apache.commons.io.FileUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.system.Txn;
+import org.apache.jena.tdb2.DatabaseMgr;
 import org.apache.jena.tdb2.TDB2Factory;
+import org.apache.jena.tdb2.loader.DataLoader;
+import org.apache.jena.tdb2.loader.LoaderFactory;
+import org.apache.jena.tdb2.loader.base.LoaderOps;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 
@@ -18,12 +53,52 @@ import org.apache.jena.vocabulary.RDFS;
  */
 public class RDFDatasetStorageTDB2 extends RDFDatasetStorage {
 
+    private static final Logger LOG = Logger.getLogger(RDFDatasetStorageTDB2.class.getName());
+
+    public static final int DEFAULT_GRAPH_CACHE_SIZE = 1000;
+    
     private Dataset dataset;
     private String location;
     
+    //reusable graph handles (uri to storage), least recently used ones are dropped
+    private Map<String, RDFGraphStorage> graphCache;
+    private AtomicLong graphCacheHits;
+    private AtomicLong graphCacheMisses;
+    
+    //null if every write has its own transaction
+    private RDFGroupCommitter groupCommitter;
+    
+    //held while an import decides on and runs the bulk loader (not while it receives the data)
+    private Object bulkLoadLock;
+    
+    //compaction state (sizes in bytes), written by the scheduler thread and read by requests
+    private ScheduledExecutorService compactionScheduler;
+    private volatile long sizeAfterLastCompaction;
+    private volatile long lastCompactionSizeBefore;
+    private volatile long lastCompactionSizeAfter;
+    private volatile long lastCompactionMillis;
+    private volatile int compactions;
+    
     public RDFDatasetStorageTDB2(String location) {
+        this(location, DEFAULT_GRAPH_CACHE_SIZE);
+    }
+    
+    public RDFDatasetStorageTDB2(String location, int graphCacheSize) {
+        this.location = location;
+        //left by a compaction which was interrupted before it could delete them
+        deleteOldGenerations();
         dataset = TDB2Factory.connectDataset(location);
         
+        graphCache = Collections.synchronizedMap(new LinkedHashMap<String, RDFGraphStorage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RDFGraphStorage> eldest) {
+                return size() > graphCacheSize;
+            }
+        });
+        graphCacheHits = new AtomicLong();
+        graphCacheMisses = new AtomicLong();
+        bulkLoadLock = new Object();
+        
         //dataset.addNamedModel(location, model)
         //dataset.containsNamedModel(location)
         //dataset.removeNamedModel(location)
@@ -35,6 +110,8 @@ public class RDFDatasetStorageTDB2 extends RDFDatasetStorage {
                 dataset.removeNamedModel(name);
             }
         });
+        graphCache.clear();
+        datasetWritten();
     }
 
     public void remove() {
@@ -46,7 +123,167 @@ public class RDFDatasetStorageTDB2 extends RDFDatasetStorage {
         return getGraphNames().size();
     }
 
+    /**
+     * Writes of the graphs which arrive within the window (in milliseconds)
+     * are committed together in one transaction of at most maxBatchSize writes.
+     * @param windowMillis
+     * @param maxBatchSize 
+     */
+    public void enableGroupCommit(long windowMillis, int maxBatchSize) {
+        disableGroupCommit();
+        //nested graph writes of the batch are versioned after the batch's commit
+        groupCommitter = new RDFGroupCommitter(dataset, windowMillis, maxBatchSize, this::writesCommitted);
+    }
+    
+    public void disableGroupCommit() {
+        if(groupCommitter != null) {
+            groupCommitter.close();
+            groupCommitter = null;
+        }
+    }
+    
+    public boolean isGroupCommit() {
+        return groupCommitter != null;
+    }
+    
+    public void executeWrite(Runnable r) {
+        RDFGroupCommitter gc = groupCommitter;
+        if(gc != null) {
+            gc.executeWrite(r);
+        } else {
+            Txn.executeWrite(dataset, r);
+        }
+    }
+    
+    public <T> T calculateWrite(Supplier<T> s) {
+        RDFGroupCommitter gc = groupCommitter;
+        if(gc != null) {
+            return gc.calculateWrite(s);
+        }
+        return Txn.calculateWrite(dataset, s);
+    }
+
+    /**
+     * Size of the database folder in bytes.
+     * @return 
+     */
+    public long getDiskSize() {
+        return FileUtils.sizeOfDirectory(new File(location));
+    }
+    
+    /**
+     * Size of the generation in use (the newest Data-NNNN folder) in bytes.
+     * @return 
+     */
+    public long getGenerationSize() {
+        File[] generations = getGenerations();
+        if(generations.length == 0) {
+            return getDiskSize();
+        }
+        return FileUtils.sizeOfDirectory(generations[generations.length - 1]);
+    }
+    
+    //all but the newest Data-NNNN folder
+    private void deleteOldGenerations() {
+        File[] generations = getGenerations();
+        for(int i = 0; i < generations.length - 1; i++) {
+            FileUtils.deleteQuietly(generations[i]);
+        }
+    }
+    
+    //Data-NNNN folders, the newest one (in use) last
+    private File[] getGenerations() {
+        File[] generations = new File(location).listFiles(f -> f.isDirectory() && f.getName().startsWith("Data-"));
+        if(generations == null) {
+            return new File[0];
+        }
+        Arrays.sort(generations, (a, b) -> a.getName().compareTo(b.getName()));
+        return generations;
+    }
+    
+    /**
+     * Writes the current state of the database into a new generation (Data-NNNN folder).
+     * Readers are served during compaction.
+     * Graph handles stay usable because the TDB2 models switch to the new generation, 
+     * but they are dropped from the cache anyway.
+     * The switch waits until no transaction uses the old generation and then closes it,
+     * so the old generations are deleted afterwards.
+     * @return the size in bytes of the new generation
+     */
+    public synchronized long compact() {
+        long begin = System.currentTimeMillis();
+        long before = getGenerationSize();
+        
+        DatabaseMgr.compact(dataset.asDatasetGraph());
+        graphCache.clear();
+        deleteOldGenerations();
+        
+        long after = getGenerationSize();
+        
+        lastCompactionSizeBefore = before;
+        lastCompactionSizeAfter = after;
+        lastCompactionMillis = System.currentTimeMillis() - begin;
+        sizeAfterLastCompaction = after;
+        compactions++;
+        
+        return after;
+    }
+    
+    /**
+     * Checks every intervalMinutes if the database should be compacted.
+     * It is compacted if it has grown by sizeThreshold bytes since the last compaction
+     * (if sizeThreshold is 0: if it has grown at all).
+     * @param intervalMinutes
+     * @param sizeThreshold bytes
+     */
+    public void scheduleCompaction(long intervalMinutes, long sizeThreshold) {
+        cancelCompaction();
+        sizeAfterLastCompaction = getGenerationSize();
+        compactionScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ldaf-compaction");
+            t.setDaemon(true);
+            return t;
+        });
+        compactionScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                long growth = getGenerationSize() - sizeAfterLastCompaction;
+                if(growth > 0 && growth >= sizeThreshold) {
+                    compact();
+                }
+            } catch(Exception e) {
+                //keep the schedule alive
+                LOG.log(Level.SEVERE, "scheduled compaction failed", e);
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+    
+    public void cancelCompaction() {
+        if(compactionScheduler != null) {
+            compactionScheduler.shutdownNow();
+            compactionScheduler = null;
+        }
+    }
+
+    public long getLastCompactionSizeBefore() {
+        return lastCompactionSizeBefore;
+    }
+
+    public long getLastCompactionSizeAfter() {
+        return lastCompactionSizeAfter;
+    }
+
+    public long getLastCompactionMillis() {
+        return lastCompactionMillis;
+    }
+
+    public int getCompactions() {
+        return compactions;
+    }
+
     public void close() {
+        cancelCompaction();
+        disableGroupCommit();
+        graphCache.clear();
         dataset.close();
     }
 
@@ -66,6 +303,9 @@ public class RDFDatasetStorageTDB2 extends RDFDatasetStorage {
             m.add(ResourceFactory.createResource(uri), RDF.type, RDFS.Container);
             dataset.addNamedModel(uri, m);
         });
+        //not written through a graph storage
+        getTypeIndexes().invalidate(uri);
+        graphWritten(uri);
     }
 
     @Override
@@ -73,6 +313,9 @@ public class RDFDatasetStorageTDB2 extends RDFDatasetStorage {
         Txn.executeWrite(dataset, () -> {
             dataset.removeNamedModel(uri);
         });
+        graphCache.remove(uri);
+        getTypeIndexes().invalidate(uri);
+        graphWritten(uri);
     }
 
     @Override
@@ -89,7 +332,121 @@ public class RDFDatasetStorageTDB2 extends RDFDatasetStorage {
 
     @Override
     public RDFGraphStorage getGraph(String uri) {
-        return new RDFGraphStorageTDB2(uri, dataset);
+        RDFGraphStorage graph = graphCache.get(uri);
+        if(graph != null) {
+            graphCacheHits.incrementAndGet();
+            return graph;
+        }
+        
+        graphCacheMisses.incrementAndGet();
+        //the TDB2 named model is a view that follows the transactions, so it can be shared
+        return graphCache.computeIfAbsent(uri, u -> new RDFGraphStorageTDB2(u, dataset, this));
+    }
+
+    /**
+     * Uses the quad indexes of TDB2 to look up the triples in each graph.
+     * Other graphs are not scanned.
+     */
+    @Override
+    public ExtendedIterator<Triple> find(Collection<String> graphs, Node s, Node p, Node o) {
+        return findQuads(graphs, s, p, o);
+    }
+    
+    /**
+     * If the graph is empty (or only has the container triple of {@link #addGraph(java.lang.String)})
+     * the TDB2 bulk loader is used, otherwise the data is committed chunk by chunk.
+     * For the bulk loader the data is received into a temporary file first,
+     * so a slow upload does not hold the loader's write transaction.
+     */
+    @Override
+    public long importGraph(String graph, InputStream in, Lang lang, int chunkSize, LongConsumer progress) {
+        if(!isEmpty(graph)) {
+            return super.importGraph(graph, in, lang, chunkSize, progress);
+        }
+        
+        File spool = null;
+        try {
+            spool = File.createTempFile("ldaf-import-", ".rt");
+            try(OutputStream out = new BufferedOutputStream(new FileOutputStream(spool))) {
+                StreamRDF writer = StreamRDFWriter.getWriterStream(out, RDFFormat.RDF_THRIFT);
+                writer.start();
+                RDFParser.source(in).lang(lang).parse(writer);
+                writer.finish();
+            }
+            
+            try(InputStream spooled = new BufferedInputStream(new FileInputStream(spool))) {
+                //checked and loaded together, so two imports into an empty graph do not both bulk load
+                synchronized(bulkLoadLock) {
+                    if(isEmpty(graph)) {
+                        return bulkLoad(graph, spooled, Lang.RDFTHRIFT, progress);
+                    }
+                }
+                //another import was faster
+                return super.importGraph(graph, spooled, Lang.RDFTHRIFT, chunkSize, progress);
+            }
+        } catch(IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            FileUtils.deleteQuietly(spool);
+        }
+    }
+    
+    //no triples besides the container triple of addGraph
+    private boolean isEmpty(String graph) {
+        RDFGraphStorage storage = getGraph(graph);
+        Triple container = Triple.create(NodeFactory.createURI(graph), RDF.type.asNode(), RDFS.Container.asNode());
+        return storage.calculateRead(() -> {
+            ExtendedIterator<Triple> iter = storage.getModel().getGraph().find().filterDrop(container::equals);
+            try {
+                return !iter.hasNext();
+            } finally {
+                iter.close();
+            }
+        });
+    }
+    
+    private long bulkLoad(String graph, InputStream in, Lang lang, LongConsumer progress) {
+        DataLoader loader = LoaderFactory.createLoader(dataset.asDatasetGraph(), NodeFactory.createURI(graph), 
+                LoaderOps.nullOutput());
+        
+        //everything goes in the given graph
+        StreamRDF stream = new StreamRDFWrapper(loader.stream()) {
+            @Override
+            public void quad(Quad quad) {
+                triple(quad.asTriple());
+            }
+        };
+        
+        loader.startBulk();
+        try {
+            RDFParser.source(in).lang(lang).parse(stream);
+            loader.finishBulk();
+        } catch(RuntimeException ex) {
+            loader.finishException(ex);
+            throw ex;
+        }
+        
+        getTypeIndexes().invalidate(graph);
+        graphWritten(graph);
+        
+        //into a named graph everything is counted as quads
+        long count = loader.countTriples() + loader.countQuads();
+        if(progress != null) {
+            progress.accept(count);
+        }
+        return count;
+    }
+    
+    public long getGraphCacheHits() {
+        return graphCacheHits.get();
+    }
+
+    public long getGraphCacheMisses() {
+        return graphCacheMisses.get();
+    }
+    
+    public int getGraphCacheSize() {
+        return graphCache.size();
     }
     
 }
@@ -0,0 +1,131 @@
+package de.dfki.sds.ldaf.rdf;
+
+import java.util.function.Supplier;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.system.Txn;
+import org.apache.jena.vocabulary.DCAT;
+import org.apache.jena.vocabulary.RDFS;
+
+/**
+ * An RDF graph that is kept in a transactional in-memory dataset.
+ */
+public class RDFGraphStorageMem extends RDFGraphStorage {
+    
+    private Dataset dataset;
+    private Model model;
+    
+    //gets to know the writes (for versions) if available
+    private RDFDatasetStorage datasetStorage;
+    
+    public RDFGraphStorageMem(String uri, Dataset dataset) {
+        super(uri);
+        this.dataset = dataset;
+        model = dataset.getNamedModel(getId());
+    }
+    
+    public RDFGraphStorageMem(String uri, Dataset dataset, RDFDatasetStorage datasetStorage) {
+        this(uri, dataset);
+        this.datasetStorage = datasetStorage;
+        //keeps the type indexes up to date
+        datasetStorage.getTypeIndexes().observe(uri, model);
+    }
+    
+    private Resource getGraphResource() {
+        return ResourceFactory.createResource(getId());
+    }
+    
+    @Override
+    public Model getModel() {
+        return model;
+    }
+    
+    @Override
+    public void executeRead(Runnable r) {
+        Txn.executeRead(dataset, r);
+    }
+
+    @Override
+    public void executeWrite(Runnable r) {
+        Txn.executeWrite(dataset, r);
+        written();
+    }
+
+    @Override
+    public <T> T calculateRead(Supplier<T> s) {
+        return Txn.calculateRead(dataset, s);
+    }
+
+    @Override
+    public <T> T calculateWrite(Supplier<T> s) {
+        T t = Txn.calculateWrite(dataset, s);
+        written();
+        return t;
+    }
+    
+    private void written() {
+        if(datasetStorage != null) {
+            datasetStorage.graphWritten(getId());
+        }
+    }
+    
+    public void clear() {
+        Txn.executeWrite(dataset, () -> {
+            model.removeAll();
+        });
+        written();
+    }
+
+    public long size() {
+        return Txn.calculateRead(dataset, () -> {
+            return model.size();
+        });
+    }
+
+    @Override
+    public void setLabel(String label) {
+        executeWrite(() -> {
+            model.removeAll(getGraphResource(), RDFS.label, null);
+            model.add(getGraphResource(), RDFS.label, label);
+        });
+    }
+
+    @Override
+    public String getLabel() {
+        return calculateRead(() -> {
+            Statement stmt = model.getProperty(getGraphResource(), RDFS.label);
+            if(stmt == null)
+                return null;
+            return stmt.getObject().asLiteral().getLexicalForm();
+        });
+    }
+
+    @Override
+    public void setPrefix(String prefix) {
+        executeWrite(() -> {
+            model.removeAll(getGraphResource(), DCAT.keyword, null);
+            model.add(getGraphResource(), DCAT.keyword, prefix);
+        });
+    }
+
+    @Override
+    public String getPrefix() {
+        return calculateRead(() -> {
+            Statement stmt = model.getProperty(getGraphResource(), DCAT.keyword);
+            if(stmt == null)
+                return null;
+            return stmt.getObject().asLiteral().getLexicalForm();
+        });
+    }
+
+    @Override
+    public boolean exists(Resource res) {
+        return calculateRead(() -> {
+            return getModel().containsResource(res);
+        });
+    }
+
+}
@@ -26,12 +26,22 @@ public class RDFGraphStorageTDB2 extends RDFGraphStorage {
     private Dataset dataset;
     private Model model;
     
+    //writes go through the dataset storage (e.g. for group commit) if available
+    private RDFDatasetStorageTDB2 datasetStorage;
+    
     public RDFGraphStorageTDB2(String uri, Dataset dataset) {
         super(uri);
         this.dataset = dataset;
         model = dataset.getNamedModel(getId());
     }
     
+    public RDFGraphStorageTDB2(String uri, Dataset dataset, RDFDatasetStorageTDB2 datasetStorage) {
+        this(uri, dataset);
+        this.datasetStorage = datasetStorage;
+        //keeps the type indexes up to date
+        datasetStorage.getTypeIndexes().observe(uri, model);
+    }
+    
     private Resource getGraphResource() {
         return ResourceFactory.createResource(getId());
     }
@@ -48,7 +58,12 @@ public class RDFGraphStorageTDB2 extends RDFGraphStorage {
 
     @Override
     public void executeWrite(Runnable r) {
-        Txn.executeWrite(dataset, r);
+        if(datasetStorage != null) {
+            datasetStorage.executeWrite(r);
+            datasetStorage.graphWritten(getId());
+        } else {
+            Txn.executeWrite(dataset, r);
+        }
     }
 
     @Override
@@ -58,6 +73,11 @@ public class RDFGraphStorageTDB2 extends RDFGraphStorage {
 
     @Override
     public <T> T calculateWrite(Supplier<T> s) {
+        if(datasetStorage != null) {
+            T t = datasetStorage.calculateWrite(s);
+            datasetStorage.graphWritten(getId());
+            return t;
+        }
         return Txn.calculateWrite(dataset, s);
     }
     
@@ -67,6 +87,9 @@ public class RDFGraphStorageTDB2 extends RDFGraphStorage {
             //dataset.removeNamedModel(getGraphUri());
             model.removeAll();
         });
+        if(datasetStorage != null) {
+            datasetStorage.graphWritten(getId());
+        }
     }
 
     public void remove() {
@@ -86,6 +109,10 @@ public class RDFGraphStorageTDB2 extends RDFGraphStorage {
             UpdateProcessor processor = UpdateExecutionFactory.create(updateRequest, dataset);
             processor.execute();
         });
+        //an update can change any graph
+        if(datasetStorage != null) {
+            datasetStorage.datasetWritten();
+        }
     }
 
     public void close() {
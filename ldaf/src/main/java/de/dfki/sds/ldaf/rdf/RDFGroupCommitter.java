@@ -0,0 +1,239 @@
+package de.dfki.sds.ldaf.rdf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.system.Txn;
+
+/**
+ * Merges writes which arrive within a short window into one write transaction.
+ * Every caller waits for the commit and gets its own result or exception.
+ * If a write fails the transaction is aborted and only that caller gets the exception:
+ * the other writes of the batch are run again, each in its own transaction.
+ * This needs Jena 3.13 or later, because before that nodes re-added
+ * right after an abort could be lost.
+ */
+public class RDFGroupCommitter {
+
+    private static final Logger LOG = Logger.getLogger(RDFGroupCommitter.class.getName());
+
+    private Dataset dataset;
+    //run by the commit thread after each successful commit (can be null)
+    private Runnable afterCommit;
+    private long windowMillis;
+    private int maxBatchSize;
+    
+    private BlockingQueue<WriteTask<?>> queue;
+    private Thread thread;
+    private volatile boolean running;
+    
+    public RDFGroupCommitter(Dataset dataset, long windowMillis, int maxBatchSize) {
+        this(dataset, windowMillis, maxBatchSize, null);
+    }
+    
+    public RDFGroupCommitter(Dataset dataset, long windowMillis, int maxBatchSize, Runnable afterCommit) {
+        this.dataset = dataset;
+        this.afterCommit = afterCommit;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.queue = new LinkedBlockingQueue<>();
+        
+        running = true;
+        thread = new Thread(this::run, "ldaf-group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public void executeWrite(Runnable r) {
+        calculateWrite(() -> {
+            r.run();
+            return null;
+        });
+    }
+    
+    public <T> T calculateWrite(Supplier<T> s) {
+        //nested writes (also the ones of the batch itself) use the open transaction
+        if(dataset.isInTransaction() || !running) {
+            return Txn.calculateWrite(dataset, s);
+        }
+        
+        WriteTask<T> task = new WriteTask<>(s);
+        queue.add(task);
+        
+        //closed in the meantime
+        if(!running && queue.remove(task)) {
+            return Txn.calculateWrite(dataset, s);
+        }
+        
+        try {
+            return task.future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            if(ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if(ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+    
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        //the ones which came too late are written one by one
+        WriteTask<?> task;
+        while((task = queue.poll()) != null) {
+            commitSingle(task);
+        }
+    }
+    
+    private void run() {
+        while(running) {
+            WriteTask<?> first;
+            try {
+                first = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if(first == null) {
+                continue;
+            }
+            
+            //collect what arrives within the window
+            List<WriteTask<?>> batch = new ArrayList<>();
+            batch.add(first);
+            long deadline = System.currentTimeMillis() + windowMillis;
+            while(batch.size() < maxBatchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    break;
+                }
+                WriteTask<?> next;
+                try {
+                    next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    commit(batch);
+                    return;
+                }
+                if(next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+            
+            commit(batch);
+        }
+    }
+    
+    private void commit(List<WriteTask<?>> batch) {
+        WriteTask<?> failed = null;
+        Throwable failure = null;
+        
+        try {
+            dataset.begin(ReadWrite.WRITE);
+            try {
+                for(WriteTask<?> task : batch) {
+                    try {
+                        task.run();
+                    } catch(Throwable t) {
+                        failed = task;
+                        failure = t;
+                        break;
+                    }
+                }
+                if(failed == null) {
+                    dataset.commit();
+                } else {
+                    dataset.abort();
+                }
+            } finally {
+                dataset.end();
+            }
+        } catch(Throwable t) {
+            //transaction itself failed: nobody succeeded
+            for(WriteTask<?> task : batch) {
+                task.future.completeExceptionally(t);
+            }
+            return;
+        }
+        
+        if(failed != null) {
+            failed.future.completeExceptionally(failure);
+            //the abort also undid the others: they are run again one by one,
+            //so another failing write cannot abort them a second time
+            for(WriteTask<?> task : batch) {
+                if(task != failed) {
+                    commitSingle(task);
+                }
+            }
+            return;
+        }
+        
+        afterCommit();
+        for(WriteTask<?> task : batch) {
+            task.complete();
+        }
+    }
+    
+    private void commitSingle(WriteTask<?> task) {
+        try {
+            Txn.executeWrite(dataset, task::run);
+        } catch(Throwable t) {
+            task.future.completeExceptionally(t);
+            return;
+        }
+        afterCommit();
+        task.complete();
+    }
+    
+    //the writes are committed, so the callers succeed even if this fails
+    private void afterCommit() {
+        if(afterCommit != null) {
+            try {
+                afterCommit.run();
+            } catch(RuntimeException ex) {
+                LOG.log(Level.SEVERE, "after commit failed", ex);
+            }
+        }
+    }
+    
+    private static class WriteTask<T> {
+        
+        private Supplier<T> supplier;
+        private T result;
+        private CompletableFuture<T> future;
+
+        public WriteTask(Supplier<T> supplier) {
+            this.supplier = supplier;
+            this.future = new CompletableFuture<>();
+        }
+        
+        private void run() {
+            result = supplier.get();
+        }
+        
+        private void complete() {
+            future.complete(result);
+        }
+    }
+    
+}
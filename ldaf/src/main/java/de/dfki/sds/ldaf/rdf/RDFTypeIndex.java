@@ -0,0 +1,189 @@
+package de.dfki.sds.ldaf.rdf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+
+/**
+ * The resources of one rdf:type in a graph, ordered by their ids
+ * with the newest (highest) id first.
+ * Pages are read with a cursor, so only the shown resources are visited.
+ * It is kept up to date by {@link RDFTypeIndexes}.
+ * The ids are parsed once into keys (a long and the URI for ties and non-numeric ids);
+ * they are objects and not a primitive array, because the index is changed 
+ * after every write (see ResourceOrderBenchmark in the tests).
+ */
+public class RDFTypeIndex {
+
+    /**
+     * Numeric ids (last path segment) are compared as numbers
+     * and are lower than the other ids, which are compared by their URI.
+     * Ties are compared by their URI too.
+     * list.sparql orders the same way.
+     */
+    public static final Comparator<Resource> ID_ORDER = (Resource a, Resource b) -> {
+        String ua = a.getURI();
+        String ub = b.getURI();
+        return Key.compare(parseId(ua), ua, parseId(ub), ub);
+    };
+
+    private final Resource type;
+    //keys are compared without parsing the URIs again
+    private final NavigableSet<Key> resources;
+    //the skip list counts by walking, so the size is kept here
+    private final AtomicInteger size;
+
+    RDFTypeIndex(Model model, Resource type) {
+        this.type = type;
+        this.resources = new ConcurrentSkipListSet<>(Collections.reverseOrder());
+        this.size = new AtomicInteger();
+        
+        //every URI is parsed once, then the keys are sorted and inserted in order
+        List<Key> keys = new ArrayList<>();
+        model.listResourcesWithProperty(RDF.type, type).forEachRemaining(res -> {
+            //blank nodes have no id to page with
+            if(res.isURIResource()) {
+                keys.add(new Key(res));
+            }
+        });
+        Key[] array = keys.toArray(new Key[keys.size()]);
+        Arrays.sort(array, Collections.reverseOrder());
+        for(Key key : array) {
+            if(resources.add(key)) {
+                size.incrementAndGet();
+            }
+        }
+    }
+
+    void add(Resource res) {
+        if(res.isURIResource() && resources.add(new Key(res))) {
+            size.incrementAndGet();
+        }
+    }
+
+    void remove(Resource res) {
+        if(res.isURIResource() && resources.remove(new Key(res))) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * At most limit resources which follow the cursor (exclusive).
+     * @param after the last resource of the previous page or null for the first page
+     * @param limit
+     * @return
+     */
+    public List<Resource> page(Resource after, int limit) {
+        NavigableSet<Key> tail = after == null ? resources : resources.tailSet(new Key(after), false);
+        return page(tail.iterator(), limit);
+    }
+
+    /**
+     * At most limit resources from the offset on.
+     * The skipped resources are walked, so prefer the cursor for deep pages.
+     * @param offset
+     * @param limit
+     * @return
+     */
+    public List<Resource> page(int offset, int limit) {
+        Iterator<Key> iter = resources.iterator();
+        for(int i = 0; i < offset && iter.hasNext(); i++) {
+            iter.next();
+        }
+        return page(iter, limit);
+    }
+
+    private List<Resource> page(Iterator<Key> iter, int limit) {
+        List<Resource> page = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        while(page.size() < limit && iter.hasNext()) {
+            page.add(iter.next().resource);
+        }
+        return page;
+    }
+
+    /**
+     * All resources in index order.
+     * @return
+     */
+    public List<Resource> list() {
+        return page(resources.iterator(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Number of resources (constant time).
+     * @return
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public Resource getType() {
+        return type;
+    }
+
+    /**
+     * The numeric id in the last path segment of the URI.
+     * Parsed by hand because it is called for every resource.
+     * @param uri
+     * @return the id or -1 if it is not a number (or too long for a long)
+     */
+    public static long parseId(String uri) {
+        int begin = uri.lastIndexOf('/') + 1;
+        int len = uri.length() - begin;
+        if(begin == 0 || len == 0 || len > 18) {
+            return -1;
+        }
+        long id = 0;
+        for(int i = begin; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if(c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
+    //a resource with its id parsed once
+    private static final class Key implements Comparable<Key> {
+
+        private final long id;
+        private final String uri;
+        private final Resource resource;
+
+        Key(Resource resource) {
+            this.resource = resource;
+            this.uri = resource.getURI();
+            this.id = parseId(uri);
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            return compare(id, uri, o.id, o.uri);
+        }
+
+        static int compare(long ida, String ua, long idb, String ub) {
+            if(ida >= 0 && idb >= 0) {
+                int cmp = Long.compare(ida, idb);
+                if(cmp != 0) {
+                    return cmp;
+                }
+            } else if(ida >= 0) {
+                return -1;
+            } else if(idb >= 0) {
+                return 1;
+            }
+            return ua.compareTo(ub);
+        }
+    }
+
+}
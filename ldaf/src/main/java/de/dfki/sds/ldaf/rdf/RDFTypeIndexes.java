@@ -0,0 +1,227 @@
+package de.dfki.sds.ldaf.rdf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphEvents;
+import org.apache.jena.graph.GraphListener;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.vocabulary.RDF;
+
+/**
+ * The type indexes of all graphs, built on first use and then kept up to date.
+ * A listener on the graph storages' models collects the rdf:type triples
+ * a thread adds or removes. When the thread's write transaction is over
+ * (see {@link #apply(RDFDatasetStorage)}) only these triples are looked up
+ * again and the indexes are changed accordingly.
+ * Because the committed state is read, an aborted write changes nothing.
+ */
+public class RDFTypeIndexes {
+
+    //graph URI to type to index
+    private final Map<String, Map<Node, RDFTypeIndex>> indexes = new ConcurrentHashMap<>();
+
+    //rdf:type triples per graph touched by this thread's write
+    private final ThreadLocal<Map<String, Set<Triple>>> touched = ThreadLocal.withInitial(HashMap::new);
+    //graphs of this thread's write where everything was removed at once
+    private final ThreadLocal<Set<String>> cleared = ThreadLocal.withInitial(HashSet::new);
+
+    //builds and changes happen one at a time, so a change is never overwritten by an older state
+    private final Object lock = new Object();
+
+    /**
+     * The index of the type in the graph.
+     * @param storage
+     * @param type
+     * @return
+     */
+    public RDFTypeIndex get(RDFGraphStorage storage, Resource type) {
+        Map<Node, RDFTypeIndex> byType = indexes.get(storage.getId());
+        RDFTypeIndex index = byType == null ? null : byType.get(type.asNode());
+        if(index != null) {
+            return index;
+        }
+        synchronized(lock) {
+            byType = indexes.computeIfAbsent(storage.getId(), g -> new ConcurrentHashMap<>());
+            index = byType.get(type.asNode());
+            if(index == null) {
+                index = storage.calculateRead(() -> new RDFTypeIndex(storage.getModel(), type));
+                byType.put(type.asNode(), index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Registers the listener which collects the rdf:type changes of the graph.
+     * Writes which do not go through this model have to call {@link #invalidate(java.lang.String) }.
+     * @param graph graph URI
+     * @param model the model writes go through
+     */
+    public void observe(String graph, Model model) {
+        model.getGraph().getEventManager().register(new TypeListener(graph));
+    }
+
+    /**
+     * Looks up the rdf:type triples this thread touched in its last write
+     * and changes the indexes. Has to be called after the transaction is over.
+     * @param datasetStorage
+     */
+    public void apply(RDFDatasetStorage datasetStorage) {
+        Map<String, Set<Triple>> touchedGraphs = touched.get();
+        Set<String> clearedGraphs = cleared.get();
+        if(touchedGraphs.isEmpty() && clearedGraphs.isEmpty()) {
+            return;
+        }
+        Map<String, Set<Triple>> changes = new HashMap<>(touchedGraphs);
+        List<String> rebuild = new ArrayList<>(clearedGraphs);
+        touchedGraphs.clear();
+        clearedGraphs.clear();
+
+        synchronized(lock) {
+            for(String graph : rebuild) {
+                indexes.remove(graph);
+                changes.remove(graph);
+            }
+            for(Map.Entry<String, Set<Triple>> e : changes.entrySet()) {
+                Map<Node, RDFTypeIndex> byType = indexes.get(e.getKey());
+                if(byType == null) {
+                    continue;
+                }
+                RDFGraphStorage storage = datasetStorage.getGraph(e.getKey());
+                storage.executeRead(() -> {
+                    Graph g = storage.getModel().getGraph();
+                    for(Triple t : e.getValue()) {
+                        RDFTypeIndex index = byType.get(t.getObject());
+                        if(index == null) {
+                            continue;
+                        }
+                        Resource res = ResourceFactory.createResource(t.getSubject().getURI());
+                        if(g.contains(t)) {
+                            index.add(res);
+                        } else {
+                            index.remove(res);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Drops the indexes of the graph, they are built again on next use.
+     * @param graph graph URI
+     */
+    public void invalidate(String graph) {
+        synchronized(lock) {
+            indexes.remove(graph);
+        }
+    }
+
+    /**
+     * Drops all indexes.
+     */
+    public void clear() {
+        synchronized(lock) {
+            indexes.clear();
+        }
+    }
+
+    private class TypeListener implements GraphListener {
+
+        private final String graph;
+
+        TypeListener(String graph) {
+            this.graph = graph;
+        }
+
+        private void touch(Triple t) {
+            if(t.getPredicate().equals(RDF.type.asNode()) && t.getSubject().isURI()) {
+                touched.get().computeIfAbsent(graph, g -> new HashSet<>()).add(t);
+            }
+        }
+
+        private void touch(Iterator<Triple> iter) {
+            while(iter.hasNext()) {
+                touch(iter.next());
+            }
+        }
+
+        private void touch(Graph added) {
+            touch(added.find(Node.ANY, RDF.type.asNode(), Node.ANY));
+        }
+
+        @Override
+        public void notifyAddTriple(Graph g, Triple t) {
+            touch(t);
+        }
+
+        @Override
+        public void notifyAddArray(Graph g, Triple[] triples) {
+            for(Triple t : triples) {
+                touch(t);
+            }
+        }
+
+        @Override
+        public void notifyAddList(Graph g, List<Triple> triples) {
+            touch(triples.iterator());
+        }
+
+        @Override
+        public void notifyAddIterator(Graph g, Iterator<Triple> it) {
+            touch(it);
+        }
+
+        @Override
+        public void notifyAddGraph(Graph g, Graph added) {
+            touch(added);
+        }
+
+        @Override
+        public void notifyDeleteTriple(Graph g, Triple t) {
+            touch(t);
+        }
+
+        @Override
+        public void notifyDeleteList(Graph g, List<Triple> triples) {
+            touch(triples.iterator());
+        }
+
+        @Override
+        public void notifyDeleteArray(Graph g, Triple[] triples) {
+            for(Triple t : triples) {
+                touch(t);
+            }
+        }
+
+        @Override
+        public void notifyDeleteIterator(Graph g, Iterator<Triple> it) {
+            touch(it);
+        }
+
+        @Override
+        public void notifyDeleteGraph(Graph g, Graph removed) {
+            touch(removed);
+        }
+
+        @Override
+        public void notifyEvent(Graph source, Object value) {
+            //removeAll does not tell the single triples
+            if(value == GraphEvents.removeAll) {
+                cleared.get().add(graph);
+            }
+        }
+    }
+
+}
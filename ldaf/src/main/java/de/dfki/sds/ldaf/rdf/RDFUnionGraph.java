@@ -0,0 +1,43 @@
+package de.dfki.sds.ldaf.rdf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.util.iterator.ExtendedIterator;
+
+/**
+ * A read-only graph which is the union of named graphs of a dataset storage.
+ * In contrast to a MultiUnion a find is not sent to every graph but 
+ * answered by the dataset storage in one lookup.
+ */
+public class RDFUnionGraph extends GraphBase {
+
+    private RDFDatasetStorage datasetStorage;
+    private List<String> graphs;
+
+    public RDFUnionGraph(RDFDatasetStorage datasetStorage, Collection<String> graphs) {
+        this.datasetStorage = datasetStorage;
+        this.graphs = new ArrayList<>(graphs);
+    }
+    
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(Triple triplePattern) {
+        return datasetStorage.find(graphs, 
+                any(triplePattern.getSubject()), 
+                any(triplePattern.getPredicate()), 
+                any(triplePattern.getObject())
+        );
+    }
+    
+    private Node any(Node n) {
+        return n == null ? Node.ANY : n;
+    }
+
+    public List<String> getGraphs() {
+        return graphs;
+    }
+    
+}
@@ -0,0 +1,169 @@
+package de.dfki.sds.ldaf.resources;
+
+import com.r6lab.sparkjava.jwt.user.Role;
+import de.dfki.sds.ldaf.LinkedDataResource;
+import de.dfki.sds.ldaf.rdf.RDFDatasetStorageTDB2;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.json.JSONObject;
+import spark.Request;
+import spark.Response;
+import spark.Spark;
+
+/**
+ * A linked data resource to move whole graphs in and out of the dataset.
+ */
+public class Graphs extends LinkedDataResource {
+
+    private static final int DEFAULT_CHUNK_SIZE = 10000;
+    
+    @Override
+    public void init() {
+        Spark.post("/graph/import", this::postImport);
+        Spark.get("/graph/export", this::getExport);
+        Spark.post("/graph/compact", this::postCompact);
+    }
+    
+    //admins can compact the TDB2 database on demand
+    private Object postCompact(Request req, Response resp) {
+        if(!authController.hasRole(req, new Role[] { Role.ADMIN })) {
+            Spark.halt(HttpStatus.FORBIDDEN_403, "only admins can compact");
+        }
+        if(!(datasetStorage instanceof RDFDatasetStorageTDB2)) {
+            Spark.halt(HttpStatus.NOT_IMPLEMENTED_501, "only TDB2 can be compacted");
+        }
+        
+        RDFDatasetStorageTDB2 tdb2 = (RDFDatasetStorageTDB2) datasetStorage;
+        tdb2.compact();
+        
+        JSONObject result = new JSONObject();
+        result.put("before", tdb2.getLastCompactionSizeBefore());
+        result.put("after", tdb2.getLastCompactionSizeAfter());
+        result.put("ms", tdb2.getLastCompactionMillis());
+        
+        return response(req, resp, null, json -> {
+            copy(result, json);
+        }, null);
+    }
+    
+    //streams one graph or all visible graphs to the client
+    private Object getExport(Request req, Response resp) throws IOException {
+        List<String> graphs = new ArrayList<>();
+        if(req.queryParams("graph") != null) {
+            String graph = req.queryParams("graph");
+            //public graphs can be read by everyone
+            if(!ldaf.getSettings().getPublicGraphs().contains(graph)) {
+                graph = targetGraph(req);
+            }
+            graphs.add(graph);
+        } else {
+            graphs.addAll(ldaf.getSettings().getPublicGraphs());
+            graphs.add(getUserGraphUri(req));
+        }
+        
+        Lang lang = RDFLanguages.shortnameToLang(req.queryParamOrDefault("format", graphs.size() == 1 ? "nt" : "nq"));
+        if(lang == null || !(lang.equals(Lang.NTRIPLES) || lang.equals(Lang.NQUADS))) {
+            Spark.halt(HttpStatus.NOT_ACCEPTABLE_406, "only nt and nq are supported");
+        }
+        
+        String acceptEncoding = req.headers(HttpHeader.ACCEPT_ENCODING.asString());
+        boolean gzip = Boolean.parseBoolean(req.queryParamOrDefault("gzip", 
+                String.valueOf(acceptEncoding != null && acceptEncoding.contains("gzip"))));
+        
+        resp.type(lang.getContentType().getContentType());
+        if(gzip) {
+            resp.header(HttpHeader.CONTENT_ENCODING.asString(), "gzip");
+        }
+        
+        OutputStream out = resp.raw().getOutputStream();
+        if(gzip) {
+            GZIPOutputStream gzipOut = new GZIPOutputStream(out, 8192);
+            datasetStorage.exportGraphs(graphs, gzipOut, lang);
+            gzipOut.finish();
+        } else {
+            datasetStorage.exportGraphs(graphs, out, lang);
+        }
+        //commits the response even if nothing was written: 
+        //Spark does not serialize (and gzip again) the returned body of a committed response
+        out.flush();
+        resp.raw().flushBuffer();
+        
+        return "";
+    }
+    
+    //streams the request body into the graph
+    private Object postImport(Request req, Response resp) throws IOException {
+        String graph = targetGraph(req);
+        
+        Lang lang = lang(req);
+        if(lang == null) {
+            Spark.halt(HttpStatus.UNSUPPORTED_MEDIA_TYPE_415, "unsupported RDF syntax");
+        }
+        
+        int chunkSize = Integer.parseInt(req.queryParamOrDefault("chunk", String.valueOf(DEFAULT_CHUNK_SIZE)));
+        
+        InputStream in = req.raw().getInputStream();
+        if("gzip".equalsIgnoreCase(req.headers(HttpHeader.CONTENT_ENCODING.asString()))) {
+            in = new GZIPInputStream(in);
+        }
+        
+        long begin = System.currentTimeMillis();
+        long count = datasetStorage.importGraph(graph, in, lang, chunkSize, null);
+        long end = System.currentTimeMillis();
+        
+        JSONObject result = new JSONObject();
+        result.put("graph", graph);
+        result.put("lang", lang.getName());
+        result.put("triples", count);
+        result.put("ms", end - begin);
+        
+        return response(req, resp, null, json -> {
+            copy(result, json);
+        }, null);
+    }
+    
+    /**
+     * The graph query parameter or the user's graph if not given.
+     * Only admins can access other graphs than their own.
+     * @param req
+     * @return 
+     */
+    protected String targetGraph(Request req) {
+        String userGraph = getUserGraphUri(req);
+        String graph = req.queryParamOrDefault("graph", userGraph);
+        
+        if(!graph.equals(userGraph) && !authController.hasRole(req, new Role[] { Role.ADMIN })) {
+            Spark.halt(HttpStatus.FORBIDDEN_403, "only admins can access other graphs");
+        }
+        
+        return graph;
+    }
+    
+    //lang query parameter (e.g. nt, nq, ttl), content type or N-Triples
+    private Lang lang(Request req) {
+        String name = req.queryParams("lang");
+        if(name != null) {
+            return RDFLanguages.shortnameToLang(name);
+        }
+        
+        String contentType = req.contentType();
+        if(contentType != null) {
+            Lang lang = RDFLanguages.contentTypeToLang(contentType);
+            if(lang != null) {
+                return lang;
+            }
+        }
+        
+        return Lang.NTRIPLES;
+    }
+    
+}
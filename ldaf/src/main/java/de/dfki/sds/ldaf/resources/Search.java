@@ -1,5 +1,6 @@
 package de.dfki.sds.ldaf.resources;
 
+import de.dfki.sds.ldaf.JSONTemplateModel;
 import de.dfki.sds.ldaf.LinkedDataResource;
 import de.dfki.sds.ldaf.RegexUtility;
 import de.dfki.sds.ldaf.rdf.RDFGraphStorage;
@@ -110,7 +111,7 @@ public class Search extends LinkedDataResource {
 
         //return result
         return response(req, resp, renderModel -> {
-                renderModel.putAll(converter.toRenderModel(resultObj));
+                renderModel.putAll(JSONTemplateModel.toRenderModel(resultObj));
                 return "search.html";
             },
             json -> {
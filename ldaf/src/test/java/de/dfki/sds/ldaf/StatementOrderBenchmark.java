@@ -0,0 +1,127 @@
+package de.dfki.sds.ldaf;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.vocabulary.RDFS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Orders the statements of a subject with hundreds of properties:
+ * the former comparator with the label/comment passes against the precomputed keys.
+ * The setup fails if both do not give the same order.
+ * Run with main (test classpath).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementOrderBenchmark {
+
+    private static final String NS = "http://example.org/ontology/";
+
+    @Param({"100", "400", "800"})
+    private int properties;
+
+    private Converter converter;
+    private List<Statement> statements;
+
+    //the order before the precomputed keys
+    private Comparator<Statement> statementComp = (a, b) -> {
+        if (a.getObject().isLiteral() && b.getObject().isResource()) {
+            return -1;
+        } else if (a.getObject().isResource() && b.getObject().isLiteral()) {
+            return 1;
+        }
+        return a.getPredicate().getLocalName().compareTo(b.getPredicate().getLocalName());
+    };
+
+    @Setup
+    public void setup() {
+        converter = new Converter("http://example.org", NS);
+
+        Model model = ModelFactory.createDefaultModel();
+        Resource subject = model.createResource("http://example.org/thing/1");
+        for (int i = 0; i < properties; i++) {
+            //literals and resources mixed, not in key order
+            int n = (i * 7919) % properties;
+            if (i % 2 == 0) {
+                subject.addProperty(model.createProperty(NS + "p" + n), "value " + i);
+            } else {
+                subject.addProperty(model.createProperty(NS + "p" + n), model.createResource("http://example.org/thing/" + i));
+            }
+        }
+        subject.addProperty(RDFS.comment, "a comment");
+        subject.addProperty(RDFS.label, "a label");
+        statements = model.listStatements(subject, null, (RDFNode) null).toList();
+
+        List<String> before = localNames(oldOrder());
+        List<String> after = localNames(newOrder());
+        if (!before.equals(after)) {
+            throw new IllegalStateException("orders differ:\n" + before + "\n" + after);
+        }
+    }
+
+    @Benchmark
+    public List<Statement> oldOrder() {
+        List<Statement> stmtList = new ArrayList<>(statements);
+        stmtList.sort(statementComp);
+
+        //put comment in front if exists
+        for (Statement stmt : stmtList.toArray(new Statement[0])) {
+            if (stmt.getPredicate().getLocalName().equals("comment")) {
+                stmtList.remove(stmt);
+                stmtList.add(0, stmt);
+            }
+        }
+        //put label in front if exists
+        for (Statement stmt : stmtList.toArray(new Statement[0])) {
+            if (stmt.getPredicate().getLocalName().equals("label")) {
+                stmtList.remove(stmt);
+                stmtList.add(0, stmt);
+            }
+        }
+        return stmtList;
+    }
+
+    @Benchmark
+    public List<Statement> newOrder() {
+        return converter.sortStatements(statements, true);
+    }
+
+    private static List<String> localNames(List<Statement> stmts) {
+        List<String> names = new ArrayList<>();
+        for (Statement stmt : stmts) {
+            names.add(stmt.getPredicate().getLocalName());
+        }
+        return names;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(StatementOrderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
@@ -0,0 +1,122 @@
+package de.dfki.sds.ldaf.rdf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Orders 100k resource URIs by their ids: the former regex comparator,
+ * {@link RDFTypeIndex#ID_ORDER} and building a {@link RDFTypeIndex}
+ * (model scan included, every URI parsed once into a key).
+ * The setup fails if the former and the new order differ.
+ * Run with main (test classpath).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourceOrderBenchmark {
+
+    @Param({"100000"})
+    private int resources;
+
+    private Model model;
+    private Resource type;
+    private List<Resource> shuffled;
+
+    //the order before the parsed keys
+    private Comparator<Resource> resourceComparator = (Resource a, Resource b) -> {
+
+        int ia = a.getURI().lastIndexOf("/");
+        int ib = b.getURI().lastIndexOf("/");
+
+        if(ia != -1 && ib != -1) {
+            String lna = a.getURI().substring(ia + 1);
+            String lnb = b.getURI().substring(ib + 1);
+            if(lna.matches("\\d+") && lnb.matches("\\d+")) {
+                return Integer.compare(Integer.parseInt(lna), Integer.parseInt(lnb));
+            }
+        }
+
+        return a.getURI().compareTo(b.getURI());
+    };
+
+    @Setup
+    public void setup() {
+        model = ModelFactory.createDefaultModel();
+        type = model.createResource("http://example.org/ontology/Thing");
+        shuffled = new ArrayList<>();
+        for(int i = 0; i < resources; i++) {
+            Resource res = model.createResource("http://example.org/thing/" + i);
+            res.addProperty(RDF.type, type);
+            shuffled.add(res);
+        }
+        //some ids which are no numbers
+        for(int i = 0; i < resources / 100; i++) {
+            Resource res = model.createResource("http://example.org/thing/t" + i);
+            res.addProperty(RDF.type, type);
+            shuffled.add(res);
+        }
+        Collections.shuffle(shuffled, new Random(1));
+
+        List<Resource> before = oldOrder();
+        Collections.reverse(before);
+        if(!before.equals(indexOrder()) || !before.equals(reversed(idOrder()))) {
+            throw new IllegalStateException("orders differ");
+        }
+    }
+
+    @Benchmark
+    public List<Resource> oldOrder() {
+        List<Resource> list = new ArrayList<>(shuffled);
+        Collections.sort(list, resourceComparator);
+        return list;
+    }
+
+    @Benchmark
+    public List<Resource> idOrder() {
+        List<Resource> list = new ArrayList<>(shuffled);
+        Collections.sort(list, RDFTypeIndex.ID_ORDER);
+        return list;
+    }
+
+    @Benchmark
+    public List<Resource> indexOrder() {
+        return new RDFTypeIndex(model, type).list();
+    }
+
+    private static List<Resource> reversed(List<Resource> list) {
+        Collections.reverse(list);
+        return list;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ResourceOrderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}